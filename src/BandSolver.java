@@ -0,0 +1,327 @@
+import java.util.Vector;
+
+    // LU solver for matrices that are banded after reordering, like the
+    // matrices of RC ladders and filter cascades.  create() pairs each
+    // column (a node voltage or source current) with its row (the node's
+    // or source's equation), orders the pairs by reverse Cuthill-McKee,
+    // which numbers each node next to its neighbors, and returns a solver
+    // only if the resulting band is narrow.  Factoring is then O(n*b^2) and solving O(n*b)
+    // instead of O(n^3) and O(n^2).  Rows are exchanged for partial
+    // pivoting (voltage source rows have zeros on the diagonal), which
+    // can widen the upper band by the lower bandwidth.
+    class BandSolver {
+	int n;
+	// rowPerm[k] and colPerm[k] are the matrix row and column that go
+	// in position k
+	int rowPerm[], colPerm[];
+	// lower and upper bandwidth after reordering
+	int lower, upper;
+	// row k of the band holds columns k-lower .. k+upper+lower
+	double band[][];
+	int pivot[];
+	double scratch[];
+
+	// smallest matrix worth checking
+	static final int minSize = 16;
+
+	BandSolver(int rowPerm[], int colPerm[], int lower, int upper) {
+	    n = rowPerm.length;
+	    this.rowPerm = rowPerm;
+	    this.colPerm = colPerm;
+	    this.lower = lower;
+	    this.upper = upper;
+	    band = new double[n][2*lower+upper+1];
+	    pivot = new int[n];
+	    scratch = new double[n];
+	}
+
+	// look at the circuit matrix and return a solver if it is banded
+	// enough after reordering, or null.  For a nonlinear circuit the
+	// pattern includes every entry a nonlinear element can stamp, not
+	// just the ones that are nonzero now.
+	static BandSolver create(CirSim sim) {
+	    int n = sim.circuitMatrixSize;
+	    if (n < minSize)
+		return null;
+	    int i, j, k;
+	    boolean pat[][] = new boolean[n][n];
+	    for (i = 0; i != n; i++)
+		for (j = 0; j != n; j++)
+		    pat[i][j] = (sim.origMatrix[i][j] != 0);
+	    if (sim.circuitNonLinear) {
+		for (i = 0; i != sim.slotCount; i++) {
+		    int r = sim.slotRow[i], c = sim.slotCol[i];
+		    if (r >= 0 && r < n && c >= 0 && c < n)
+			pat[r][c] = true;
+		}
+		int nodeRows = sim.nodeList.size()-1;
+		int rows[] = new int[16], cols[] = new int[16];
+		for (i = 0; i != sim.elmList.size(); i++) {
+		    CircuitElm ce = sim.elmList.elementAt(i);
+		    if (!ce.nonLinear())
+			continue;
+		    int nr = 0, nc = 0;
+		    for (j = 0; j != ce.nodes.length + sim.voltageSources.length; j++) {
+			int full;
+			if (j < ce.nodes.length) {
+			    if (ce.nodes[j] == 0)
+				continue;
+			    full = ce.nodes[j]-1;
+			} else {
+			    if (sim.voltageSources[j-ce.nodes.length] != ce)
+				continue;
+			    full = nodeRows+j-ce.nodes.length;
+			}
+			RowInfo ri = sim.circuitRowInfo[full];
+			if (nr == rows.length || nc == cols.length) {
+			    rows = grow(rows);
+			    cols = grow(cols);
+			}
+			if (ri.mapRow >= 0 && ri.mapRow < n)
+			    rows[nr++] = ri.mapRow;
+			if (ri.type != RowInfo.ROW_CONST && ri.mapCol >= 0 && ri.mapCol < n)
+			    cols[nc++] = ri.mapCol;
+		    }
+		    for (j = 0; j != nr; j++)
+			for (k = 0; k != nc; k++)
+			    pat[rows[j]][cols[k]] = true;
+		}
+	    }
+
+	    // pair the rows and columns of each node and voltage source
+	    int rowOfCol[] = new int[n], colOfRow[] = new int[n];
+	    for (i = 0; i != n; i++)
+		rowOfCol[i] = colOfRow[i] = -1;
+	    for (i = 0; i != sim.circuitMatrixFullSize; i++) {
+		RowInfo ri = sim.circuitRowInfo[i];
+		int r = ri.mapRow, c = ri.mapCol;
+		if (ri.type == RowInfo.ROW_CONST || r < 0 || r >= n || c < 0 || c >= n)
+		    continue;
+		if (rowOfCol[c] < 0 && colOfRow[r] < 0) {
+		    rowOfCol[c] = r;
+		    colOfRow[r] = c;
+		}
+	    }
+	    // pair up what's left, preferring a column the row uses
+	    for (i = 0; i != n; i++) {
+		if (colOfRow[i] >= 0)
+		    continue;
+		int c = -1;
+		for (j = 0; j != n; j++)
+		    if (rowOfCol[j] < 0 && (c < 0 || pat[i][j])) {
+			c = j;
+			if (pat[i][j])
+			    break;
+		    }
+		rowOfCol[c] = i;
+		colOfRow[i] = c;
+	    }
+
+	    // neighbors of each pair in the symmetric pattern
+	    Vector<int[]> adj = new Vector<int[]>();
+	    int deg[] = new int[n];
+	    int tmp[] = new int[n];
+	    for (i = 0; i != n; i++) {
+		int c = 0;
+		for (j = 0; j != n; j++)
+		    if (j != i && (pat[rowOfCol[i]][j] || pat[rowOfCol[j]][i]))
+			tmp[c++] = j;
+		int l[] = new int[c];
+		System.arraycopy(tmp, 0, l, 0, c);
+		adj.addElement(l);
+		deg[i] = c;
+	    }
+	    int natural[] = new int[n];
+	    for (i = 0; i != n; i++)
+		natural[i] = i;
+	    int rcm[] = orderRCM(adj, deg, n);
+	    int bn[] = bandwidth(pat, n, rowOfCol, natural);
+	    int br[] = bandwidth(pat, n, rowOfCol, rcm);
+	    int p[] = natural;
+	    if (br[0]+br[1] < bn[0]+bn[1]) {
+		p = rcm;
+		bn = br;
+	    }
+	    // banded elimination takes about n*(lower+1)*(width) steps against
+	    // n^3/3 for dense, but each step costs more; ask for a margin of 2
+	    if (6*(bn[0]+1)*(2*bn[0]+bn[1]+1) >= n*n)
+		return null;
+	    int rp[] = new int[n];
+	    for (i = 0; i != n; i++)
+		rp[i] = rowOfCol[p[i]];
+	    return new BandSolver(rp, p, bn[0], bn[1]);
+	}
+
+	static int[] grow(int a[]) {
+	    int b[] = new int[a.length*2];
+	    System.arraycopy(a, 0, b, 0, a.length);
+	    return b;
+	}
+
+	// reverse Cuthill-McKee: breadth-first from a low-degree node of
+	// each connected part, visiting neighbors by increasing degree,
+	// then reversed
+	static int[] orderRCM(Vector<int[]> adj, int deg[], int n) {
+	    int order[] = new int[n];
+	    boolean done[] = new boolean[n];
+	    int count = 0, i, k;
+	    while (count < n) {
+		int start = -1;
+		for (i = 0; i != n; i++)
+		    if (!done[i] && (start < 0 || deg[i] < deg[start]))
+			start = i;
+		done[start] = true;
+		order[count] = start;
+		int head = count++;
+		for (; head < count; head++) {
+		    int l[] = adj.elementAt(order[head]);
+		    int first = count;
+		    for (k = 0; k != l.length; k++)
+			if (!done[l[k]]) {
+			    done[l[k]] = true;
+			    order[count++] = l[k];
+			}
+		    // insertion sort of the new level by degree
+		    for (i = first+1; i < count; i++) {
+			int x = order[i];
+			for (k = i; k > first && deg[order[k-1]] > deg[x]; k--)
+			    order[k] = order[k-1];
+			order[k] = x;
+		    }
+		}
+	    }
+	    for (i = 0; i != n/2; i++) {
+		k = order[i];
+		order[i] = order[n-1-i];
+		order[n-1-i] = k;
+	    }
+	    return order;
+	}
+
+	// lower and upper bandwidth of pattern a with columns in order p,
+	// each with its paired row
+	static int[] bandwidth(boolean a[][], int n, int rowOfCol[], int p[]) {
+	    int lo = 0, up = 0, i, j;
+	    for (i = 0; i != n; i++) {
+		boolean row[] = a[rowOfCol[p[i]]];
+		for (j = 0; j != n; j++) {
+		    if (!row[p[j]])
+			continue;
+		    if (i-j > lo)
+			lo = i-j;
+		    if (j-i > up)
+			up = j-i;
+		}
+	    }
+	    return new int[] { lo, up };
+	}
+
+	// copy a into the band and factor it.  Returns false if a is
+	// singular, or has nonzeros outside the band.
+	boolean factor(double a[][]) {
+	    int i, j, k;
+	    int w = band[0].length;
+	    for (i = 0; i != n; i++) {
+		double row[] = a[rowPerm[i]], b[] = band[i];
+		int c0 = i-lower;
+		for (k = 0; k != w; k++) {
+		    j = c0+k;
+		    b[k] = (j >= 0 && j < n && k <= lower+upper) ? row[colPerm[j]] : 0;
+		}
+	    }
+	    for (k = 0; k != n; k++) {
+		// find the largest pivot among the rows below
+		int last = Math.min(n-1, k+lower);
+		int p = k;
+		double max = Math.abs(band[k][lower]);
+		for (i = k+1; i <= last; i++) {
+		    double x = Math.abs(band[i][k-i+lower]);
+		    if (x > max) {
+			max = x;
+			p = i;
+		    }
+		}
+		pivot[k] = p;
+		if (max == 0)
+		    return false;
+		int end = Math.min(n-1, k+upper+lower);
+		if (p != k) {
+		    double rk[] = band[k], rp[] = band[p];
+		    for (j = k; j <= end; j++) {
+			double x = rk[j-k+lower];
+			rk[j-k+lower] = rp[j-p+lower];
+			rp[j-p+lower] = x;
+		    }
+		}
+		double rk[] = band[k];
+		double d = rk[lower];
+		for (i = k+1; i <= last; i++) {
+		    double ri[] = band[i];
+		    int off = lower-i;
+		    double f = ri[k+off];
+		    if (f == 0)
+			continue;
+		    f /= d;
+		    ri[k+off] = f;
+		    for (j = k+1; j <= end; j++)
+			ri[j+off] -= f*rk[j-k+lower];
+		}
+	    }
+	    // the rows of a outside the band weren't copied, so check there
+	    // were none
+	    for (i = 0; i != n; i++) {
+		double row[] = a[rowPerm[i]];
+		for (j = 0; j < i-lower; j++)
+		    if (row[colPerm[j]] != 0)
+			return false;
+		for (j = i+upper+1; j < n; j++)
+		    if (row[colPerm[j]] != 0)
+			return false;
+	    }
+	    return true;
+	}
+
+	// nonzeros in the factors
+	int countNonzeros() {
+	    int i, k, c = 0;
+	    for (i = 0; i != n; i++)
+		for (k = 0; k != band[i].length; k++)
+		    if (band[i][k] != 0)
+			c++;
+	    return c;
+	}
+
+	// solve using the last factorization.  b holds the right side
+	// (indexed by row) on entry and the solution (indexed by column)
+	// on exit.
+	void solve(double b[]) {
+	    int i, j, k;
+	    double x[] = scratch;
+	    for (i = 0; i != n; i++)
+		x[i] = b[rowPerm[i]];
+	    for (k = 0; k != n; k++) {
+		int p = pivot[k];
+		if (p != k) {
+		    double t = x[k];
+		    x[k] = x[p];
+		    x[p] = t;
+		}
+		double xk = x[k];
+		if (xk == 0)
+		    continue;
+		int last = Math.min(n-1, k+lower);
+		for (i = k+1; i <= last; i++)
+		    x[i] -= band[i][k-i+lower]*xk;
+	    }
+	    for (i = n-1; i >= 0; i--) {
+		double ri[] = band[i];
+		double sum = x[i];
+		int end = Math.min(n-1, i+upper+lower);
+		for (j = i+1; j <= end; j++)
+		    sum -= ri[j-i+lower]*x[j];
+		x[i] = sum/ri[lower];
+	    }
+	    for (i = 0; i != n; i++)
+		b[colPerm[i]] = x[i];
+	}
+    }
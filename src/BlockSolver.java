@@ -0,0 +1,438 @@
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+    // solver for a matrix made of independent blocks, one per electrically
+    // separate part of the circuit (parts that share only ground are
+    // separate, since ground is not in the matrix).  Each block is
+    // factored and solved on its own, only when its stamps changed.
+    //
+    // The blocks also take over the rest of the subiteration: doStep()
+    // restores each block's stamps, runs its elements and evaluates its
+    // own DiodeBank and TransistorBank, and solve() factors and solves
+    // it.  An element only stamps rows and columns of its own block, so
+    // large blocks can do both as tasks on a thread pool, with the same
+    // result as running them in turn.  The elements still share
+    // sim.converged, which they only ever clear, and sim.limitedSteps,
+    // which is a statistic and may lose counts when blocks run at once.
+    class BlockSolver {
+	CirSim sim;
+	// rows and columns of the circuit matrix in each block
+	int blockRows[][], blockCols[][];
+	// factored matrix of each block, the stamps it was factored from,
+	// and its pivots
+	double lu[][][], source[][][];
+	int permute[][];
+	boolean valid[];
+	double scratch[][];
+	// elements of each block that override doStep(), and those not in
+	// any block (all their nodes are ground or constant)
+	CircuitElm stepElms[][], otherElms[];
+	DiodeBank diodeBanks[];
+	TransistorBank transistorBanks[];
+	// block of each row and column
+	int rowBlock[], colBlock[];
+	// results of the last solve() for each block: whether it was
+	// refactored or had a NaN, and the time spent factoring and solving
+	boolean changed[], nan[];
+	long factorTimes[], solveTimes[];
+	// totals of the above over the blocks for the last solve()
+	int refactored;
+	boolean gotNaN;
+	long factorTime, solveTime;
+
+	// blocks at least this big run as tasks on the thread pool
+	static final int parallelSize = 48;
+	static final int STEP = 0, SOLVE = 1;
+	static ExecutorService pool;
+
+	BlockSolver(CirSim s, int rows[][], int cols[][], int elmBlock[]) {
+	    sim = s;
+	    blockRows = rows;
+	    blockCols = cols;
+	    int nb = rows.length;
+	    lu = new double[nb][][];
+	    source = new double[nb][][];
+	    permute = new int[nb][];
+	    valid = new boolean[nb];
+	    scratch = new double[nb][];
+	    changed = new boolean[nb];
+	    nan = new boolean[nb];
+	    factorTimes = new long[nb];
+	    solveTimes = new long[nb];
+	    rowBlock = new int[sim.circuitMatrixSize];
+	    colBlock = new int[sim.circuitMatrixSize];
+	    int b, i;
+	    for (b = 0; b != nb; b++) {
+		int n = rows[b].length;
+		for (i = 0; i != n; i++) {
+		    rowBlock[rows[b][i]] = b;
+		    colBlock[cols[b][i]] = b;
+		}
+		lu[b] = new double[n][n];
+		source[b] = new double[n][n];
+		permute[b] = new int[n];
+		scratch[b] = new double[n];
+	    }
+
+	    Vector<CircuitElm> other = new Vector<CircuitElm>();
+	    Vector<Vector<CircuitElm>> steps = new Vector<Vector<CircuitElm>>();
+	    for (b = 0; b != nb; b++)
+		steps.addElement(new Vector<CircuitElm>());
+	    for (i = 0; i != sim.elmList.size(); i++) {
+		CircuitElm ce = sim.elmList.elementAt(i);
+		if (!StepKernel.overrides(ce, "doStep"))
+		    continue;
+		if (elmBlock[i] < 0)
+		    other.addElement(ce);
+		else
+		    steps.elementAt(elmBlock[i]).addElement(ce);
+	    }
+	    otherElms = new CircuitElm[other.size()];
+	    other.copyInto(otherElms);
+	    stepElms = new CircuitElm[nb][];
+	    for (b = 0; b != nb; b++) {
+		Vector<CircuitElm> v = steps.elementAt(b);
+		stepElms[b] = new CircuitElm[v.size()];
+		v.copyInto(stepElms[b]);
+	    }
+
+	    // move the diodes and transistors to their block's banks, so
+	    // the blocks can evaluate them at the same time
+	    diodeBanks = new DiodeBank[nb];
+	    transistorBanks = new TransistorBank[nb];
+	    for (b = 0; b != nb; b++) {
+		diodeBanks[b] = new DiodeBank();
+		transistorBanks[b] = new TransistorBank();
+	    }
+	    DiodeBank db = sim.diodeBank;
+	    for (i = 0; i != db.count; i++) {
+		Diode d = db.diodes[i];
+		b = nodeBlock(d.nodes);
+		if (b >= 0)
+		    d.setBank(diodeBanks[b]);
+	    }
+	    TransistorBank tb = sim.transistorBank;
+	    for (i = 0; i != tb.count; i++) {
+		TransistorElm t = tb.transistors[i];
+		b = nodeBlock(t.nodes);
+		if (b >= 0)
+		    t.setBank(transistorBanks[b]);
+	    }
+	}
+
+	// split the circuit matrix into blocks.  Rows and columns are joined
+	// if the matrix has an entry linking them, or if they belong to the
+	// same element (its doStep() stamps may not be in the matrix yet).
+	// Returns null if there is only one block, or if some block is not
+	// square.
+	static BlockSolver create(CirSim sim) {
+	    int i, j, b;
+	    int n = sim.circuitMatrixSize;
+	    // rows are 0..n-1, columns n..2n-1
+	    int parent[] = new int[2*n];
+	    for (i = 0; i != 2*n; i++)
+		parent[i] = i;
+	    for (i = 0; i != n; i++)
+		for (j = 0; j != n; j++)
+		    if (sim.origMatrix[i][j] != 0)
+			union(parent, i, n+j);
+	    int nodeRows = sim.nodeList.size()-1;
+	    // a row or column of each element, or -1 if it has none
+	    int elmFirst[] = new int[sim.elmList.size()];
+	    for (i = 0; i != sim.elmList.size(); i++) {
+		CircuitElm ce = sim.elmList.elementAt(i);
+		int first = -1;
+		for (j = 0; j != ce.nodes.length; j++)
+		    if (ce.nodes[j] != 0)
+			first = join(sim, parent, ce.nodes[j]-1, first);
+		for (j = 0; j != sim.voltageSources.length; j++)
+		    if (sim.voltageSources[j] == ce)
+			first = join(sim, parent, nodeRows+j, first);
+		elmFirst[i] = first;
+	    }
+
+	    int comp[] = new int[2*n], size[] = new int[2*n];
+	    for (i = 0; i != 2*n; i++) {
+		comp[i] = find(parent, i);
+		size[comp[i]] += (i < n) ? 1 : -1;
+	    }
+	    // block number of each set
+	    int setBlock[] = new int[2*n];
+	    Vector<int[]> rows = new Vector<int[]>(), cols = new Vector<int[]>();
+	    for (b = 0; b != 2*n; b++) {
+		setBlock[b] = -1;
+		if (comp[b] != b)
+		    continue;
+		if (size[b] != 0)
+		    return null;
+		int nr = 0;
+		for (i = 0; i != n; i++)
+		    if (comp[i] == b)
+			nr++;
+		if (nr == 0)
+		    continue;
+		int r[] = new int[nr], c[] = new int[nr];
+		int ir = 0, ic = 0;
+		for (i = 0; i != n; i++) {
+		    if (comp[i] == b)
+			r[ir++] = i;
+		    if (comp[n+i] == b)
+			c[ic++] = i;
+		}
+		setBlock[b] = rows.size();
+		rows.addElement(r);
+		cols.addElement(c);
+	    }
+	    if (rows.size() < 2)
+		return null;
+	    int br[][] = new int[rows.size()][], bc[][] = new int[cols.size()][];
+	    rows.copyInto(br);
+	    cols.copyInto(bc);
+	    int elmBlock[] = new int[elmFirst.length];
+	    for (i = 0; i != elmFirst.length; i++)
+		elmBlock[i] = (elmFirst[i] < 0) ? -1 : setBlock[comp[elmFirst[i]]];
+	    return new BlockSolver(sim, br, bc, elmBlock);
+	}
+
+	// join the mapped row and column of full matrix row r to the set
+	// containing first; returns the set to join the next row to
+	static int join(CirSim sim, int parent[], int r, int first) {
+	    int n = sim.circuitMatrixSize;
+	    RowInfo ri = sim.circuitRowInfo[r];
+	    if (ri.mapRow >= 0 && ri.mapRow < n) {
+		if (first >= 0)
+		    union(parent, first, ri.mapRow);
+		first = ri.mapRow;
+	    }
+	    if (ri.type != RowInfo.ROW_CONST && ri.mapCol >= 0 && ri.mapCol < n) {
+		if (first >= 0)
+		    union(parent, first, n+ri.mapCol);
+		first = n+ri.mapCol;
+	    }
+	    return first;
+	}
+
+	static int find(int parent[], int i) {
+	    while (parent[i] != i)
+		i = parent[i] = parent[parent[i]];
+	    return i;
+	}
+
+	static void union(int parent[], int a, int b) {
+	    a = find(parent, a);
+	    b = find(parent, b);
+	    if (a != b)
+		parent[b] = a;
+	}
+
+	// block of the first of the nodes that is in one, or -1 if they
+	// are all ground or constant
+	int nodeBlock(int nodes[]) {
+	    int i;
+	    int n = sim.circuitMatrixSize;
+	    for (i = 0; i != nodes.length; i++) {
+		if (nodes[i] == 0)
+		    continue;
+		RowInfo ri = sim.circuitRowInfo[nodes[i]-1];
+		if (ri.mapRow >= 0 && ri.mapRow < n)
+		    return rowBlock[ri.mapRow];
+		if (ri.type != RowInfo.ROW_CONST && ri.mapCol >= 0 && ri.mapCol < n)
+		    return colBlock[ri.mapCol];
+	    }
+	    return -1;
+	}
+
+	void invalidate() {
+	    int b;
+	    for (b = 0; b != valid.length; b++)
+		valid[b] = false;
+	}
+
+	// one subiteration of the elements: restore each block's stamps from
+	// sim.origMatrix, call its elements' doStep() and evaluate its
+	// diodes and transistors
+	void doStep() {
+	    int b, i;
+	    StepKernel k = sim.stepKernel;
+	    if (k.stats != null || sim.metrics.profileElements) {
+		// the instrumented loop records each element in turn
+		for (b = 0; b != blockRows.length; b++)
+		    restore(b);
+		k.doStep();
+		for (b = 0; b != blockRows.length; b++) {
+		    diodeBanks[b].evaluate();
+		    transistorBanks[b].evaluate();
+		}
+		return;
+	    }
+	    for (i = 0; i != otherElms.length; i++)
+		otherElms[i].doStep();
+	    run(STEP);
+	}
+
+	void restore(int b) {
+	    int r[] = blockRows[b], c[] = blockCols[b];
+	    int i, j;
+	    for (i = 0; i != r.length; i++) {
+		double a[] = sim.circuitMatrix[r[i]], o[] = sim.origMatrix[r[i]];
+		for (j = 0; j != c.length; j++)
+		    a[c[j]] = o[c[j]];
+	    }
+	}
+
+	void doStep(int b) {
+	    int i;
+	    restore(b);
+	    CircuitElm elms[] = stepElms[b];
+	    for (i = 0; i != elms.length; i++)
+		elms[i].doStep();
+	    diodeBanks[b].evaluate();
+	    transistorBanks[b].evaluate();
+	}
+
+	// factor the blocks of sim.circuitMatrix that changed since last
+	// time, and solve.  x holds the right side (indexed by row) on entry
+	// and the solution (indexed by column) on exit.  Returns false if
+	// a block is singular or has a NaN (then gotNaN is set).
+	boolean solve(double x[]) {
+	    int b, i;
+	    for (b = 0; b != blockRows.length; b++) {
+		int r[] = blockRows[b];
+		double v[] = scratch[b];
+		for (i = 0; i != r.length; i++)
+		    v[i] = x[r[i]];
+	    }
+	    boolean ok = run(SOLVE);
+	    refactored = 0;
+	    gotNaN = false;
+	    factorTime = solveTime = 0;
+	    for (b = 0; b != blockRows.length; b++) {
+		if (changed[b])
+		    refactored++;
+		gotNaN |= nan[b];
+		factorTime += factorTimes[b];
+		solveTime += solveTimes[b];
+	    }
+	    if (!ok) {
+		invalidate();
+		return false;
+	    }
+	    for (b = 0; b != blockRows.length; b++) {
+		int c[] = blockCols[b];
+		double v[] = scratch[b];
+		for (i = 0; i != c.length; i++)
+		    x[c[i]] = v[i];
+	    }
+	    return true;
+	}
+
+	// copy block b out of the circuit matrix, factor it if it changed,
+	// and solve it in scratch[b]
+	boolean solve(int b) {
+	    int i, j;
+	    long t0 = System.nanoTime();
+	    int r[] = blockRows[b], c[] = blockCols[b];
+	    int n = r.length;
+	    double a[][] = sim.circuitMatrix;
+	    double src[][] = source[b];
+	    boolean same = valid[b];
+	    changed[b] = nan[b] = false;
+	    factorTimes[b] = solveTimes[b] = 0;
+	    for (i = 0; i != n; i++) {
+		double ar[] = a[r[i]], sr[] = src[i];
+		for (j = 0; j != n; j++) {
+		    double x = ar[c[j]];
+		    if (sr[j] != x) {
+			if (Double.isNaN(x) || Double.isInfinite(x)) {
+			    nan[b] = true;
+			    return false;
+			}
+			sr[j] = x;
+			same = false;
+		    }
+		}
+	    }
+	    if (!same) {
+		for (i = 0; i != n; i++)
+		    System.arraycopy(src[i], 0, lu[b][i], 0, n);
+		valid[b] = false;
+		changed[b] = true;
+		if (!sim.lu_factor(lu[b], n, permute[b]))
+		    return false;
+		valid[b] = true;
+	    }
+	    long t1 = System.nanoTime();
+	    factorTimes[b] = t1-t0;
+	    sim.lu_solve(lu[b], n, permute[b], scratch[b]);
+	    solveTimes[b] = System.nanoTime()-t1;
+	    return true;
+	}
+
+	// run doStep(b) or solve(b) for every block.  The big blocks go to
+	// the thread pool and the rest run here in the meantime.  Returns
+	// false if any solve(b) did.
+	boolean run(final int phase) {
+	    int b;
+	    boolean ok = true;
+	    Vector<Future<Boolean>> jobs = null;
+	    for (b = 0; b != blockRows.length; b++) {
+		if (blockRows[b].length < parallelSize)
+		    continue;
+		if (jobs == null)
+		    jobs = new Vector<Future<Boolean>>();
+		final int fb = b;
+		jobs.addElement(getPool().submit(new Callable<Boolean>() {
+		    public Boolean call() {
+			return task(phase, fb);
+		    }
+		}));
+	    }
+	    for (b = 0; b != blockRows.length; b++)
+		if (blockRows[b].length < parallelSize && !task(phase, b))
+		    ok = false;
+	    if (jobs != null) {
+		try {
+		    for (b = 0; b != jobs.size(); b++)
+			if (!jobs.elementAt(b).get().booleanValue())
+			    ok = false;
+		} catch (Exception e) {
+		    e.printStackTrace();
+		    ok = false;
+		}
+	    }
+	    return ok;
+	}
+
+	boolean task(int phase, int b) {
+	    if (phase == SOLVE)
+		return solve(b);
+	    doStep(b);
+	    return true;
+	}
+
+	// nonzeros in the blocks' last factored stamps, or in their factors
+	int countNonzeros(boolean factors) {
+	    int b, c = 0;
+	    for (b = 0; b != blockRows.length; b++)
+		c += SolverMetrics.countNonzeros(factors ? lu[b] : source[b], blockRows[b].length);
+	    return c;
+	}
+
+	static synchronized ExecutorService getPool() {
+	    if (pool == null) {
+		int n = Runtime.getRuntime().availableProcessors();
+		pool = Executors.newFixedThreadPool(n, new ThreadFactory() {
+		    public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "circuit solver");
+			t.setDaemon(true);
+			return t;
+		    }
+		});
+	    }
+	    return pool;
+	}
+    }
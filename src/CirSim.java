@@ -10,6 +10,7 @@ import java.io.*;
 import java.lang.Math;
 import java.lang.reflect.Constructor;
 import java.net.URL;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Random;
 import java.util.StringTokenizer;
@@ -43,6 +44,8 @@ public class CirSim extends JFrame
     JFileChooser fileChooser;
     JMenuItem saveItem, loadItem, exportItem, importItem, exitItem;
     JMenuItem undoItem, redoItem, cutItem, copyItem, pasteItem, selectAllItem, optionsItem;
+    JMenuItem convergenceReportItem;
+    JMenuItem exportWaveformsItem, stopExportItem;
     JMenu circuitsMenu;
     
     JCheckBox stoppedCheck;
@@ -52,7 +55,8 @@ public class CirSim extends JFrame
     JTextArea infoArea;
     
     JCheckBoxMenuItem dotsCheckItem, voltsCheckItem, powerCheckItem, showGridCheckItem, smallGridCheckItem,
-    showValuesCheckItem, showPolarityCheckItem, conductanceCheckItem, euroResistorCheckItem, conventionCheckItem;
+    showValuesCheckItem, showPolarityCheckItem, conductanceCheckItem, euroResistorCheckItem, conventionCheckItem,
+    convergenceStatsCheckItem, iterativeCheckItem, compileCheckItem;
     
     JPopupMenu mainMenu;
     
@@ -120,8 +124,46 @@ public class CirSim extends JFrame
     int draggingPost;
     SwitchElm heldSwitchElm;
     double circuitMatrix[][], circuitRightSide[], origRightSide[], origMatrix[][];
+    // the matrix of a large linear circuit going to the iterative solver,
+    // assembled without the dense matrices (which are then null)
+    SparseMatrix sparseMatrix;
+    // origRightSide plus the sources for the current timestep
+    double stepRightSide[];
     RowInfo circuitRowInfo[];
-    int circuitPermute[];
+    // stamped matrix the nonlinear circuit was last factored from, so we
+    // can skip refactoring when nothing moved
+    double luSource[][];
+    boolean luValid;
+    // nonlinear circuit split into independent parts, or null
+    BlockSolver blockSolver;
+    // nonlinear devices whose controlling voltages moved less than this
+    // reuse their last stamps (device bypass)
+    static final double bypassTolerance = 1e-6;
+    // batched model evaluation for diodes and bipolar transistors
+    DiodeBank diodeBank;
+    TransistorBank transistorBank;
+    // precomputed solution of a linear circuit as a function of the
+    // right side rows that change each step; see calcStateSpace()
+    double stateSpaceBase[], stateSpaceGain[][], stateSpaceU[];
+    int stateSpaceRows[];
+    boolean stateSpaceInput[];
+    // per-step loops (or generated code) for the current topology
+    StepKernel stepKernel;
+    // for each voltage source, the full matrix row of the node it drives
+    // if that node was taken out of the matrix, otherwise -1; see
+    // detachDrivenNodes()
+    int detachedRow[];
+    // right side slots and matrix coefficients of the rows that use each
+    // detached node's voltage
+    int detachedLoadSlot[][];
+    double detachedLoadCoef[][];
+    // matrix entries (slotNode2 >= 0) and right side rows (slotNode2 == -1)
+    // that elements stamp in doStep(), requested in stamp() and resolved
+    // to simplified matrix indices by resolveSlots()
+    int slotNode1[], slotNode2[];
+    int slotRow[], slotCol[];
+    double slotConst[];
+    int slotCount;
     boolean circuitNonLinear;
     int voltageSourceCount;
     int circuitMatrixSize, circuitMatrixFullSize;
@@ -167,6 +209,7 @@ public class CirSim extends JFrame
 		String useFrameStr = null;
 	
 		CircuitElm.initClass(this);
+		metrics.register();
 		
 		if ( applet != null ) {
 			baseURL = applet.getCodeBase();
@@ -484,20 +527,21 @@ public class CirSim extends JFrame
 	int badnodes = 0;
 	// find bad connections, nodes not connected to other elements which
 	// intersect other elements' bounding boxes
-	for (i = 0; i != nodeList.size(); i++) {
-	    CircuitNode cn = getCircuitNode(i);
-	    if (!cn.internal && cn.links.size() == 1) {
-			int bb = 0, j;
-			CircuitNodeLink cnl = (CircuitNodeLink)
-			    cn.links.elementAt(0);
-			for (j = 0; j != elmList.size(); j++)
-			    if (cnl.elm != getElm(j) && getElm(j).boundingBox.contains(cn.x, cn.y))
-			    	bb++;
-			if (bb > 0) {
-			    g.setColor(Color.red);
-			    g.fillOval(cn.x-3, cn.y-3, 7, 7);
-			    badnodes++;
-			}
+	if (postLinks != null) {
+	    for (Vector<CircuitNodeLink> pl : postLinks.values()) {
+		if (pl.size() != 1)
+		    continue;
+		int bb = 0, j;
+		CircuitNodeLink cnl = pl.elementAt(0);
+		Point pt = cnl.elm.getPost(cnl.num);
+		for (j = 0; j != elmList.size(); j++)
+		    if (cnl.elm != getElm(j) && getElm(j).boundingBox.contains(pt))
+			bb++;
+		if (bb > 0) {
+		    g.setColor(Color.red);
+		    g.fillOval(pt.x-3, pt.y-3, 7, 7);
+		    badnodes++;
+		}
 	    }
 	}
 	/*if (mouseElm != null) {
@@ -586,7 +630,7 @@ public class CirSim extends JFrame
 	*/
 
 	realg.drawImage(dbimage, 0, 0, this);
-	if (!stoppedCheck.isSelected() && circuitMatrix != null) {
+	if (!stoppedCheck.isSelected() && (circuitMatrix != null || sparseMatrix != null)) {
 	    // Limit to 50 fps (thanks to J�rgen Kl�tzer for this)
 	    long delay = 1000/50 - (System.currentTimeMillis() - lastFrameTime);
 	    //realg.drawString("delay: " + delay,  10, 90);
@@ -744,6 +788,9 @@ public class CirSim extends JFrame
     
     Vector<CircuitNode> nodeList;
     CircuitElm voltageSources[];
+    HashMap<Point,Point> wireGroupMap;
+    HashMap<Point,Vector<CircuitNodeLink>> postLinks;
+    Vector<WireInfo> wireInfoList;
 
     public CircuitNode getCircuitNode(int n) {
 	if (n >= nodeList.size())
@@ -758,6 +805,7 @@ public class CirSim extends JFrame
     }
     
     void analyzeCircuit() {
+	long analyzeStart = System.nanoTime();
 	calcCircuitBottom();
 	if (elmList.isEmpty())
 	    return;
@@ -766,6 +814,8 @@ public class CirSim extends JFrame
 	int i, j;
 	int vscount = 0;
 	nodeList = new Vector<CircuitNode>();
+	postLinks = new HashMap<Point,Vector<CircuitNodeLink>>();
+	wireInfoList = new Vector<WireInfo>();
 	boolean gotGround = false;
 	boolean gotRail = false;
 	CircuitElm volt = null;
@@ -784,6 +834,24 @@ public class CirSim extends JFrame
 		volt = ce;
 	}
 
+	// merge posts joined by wires and closed switches, so that each
+	// group of them becomes a single node instead of needing a voltage
+	// source (and a matrix row) per wire
+	wireGroupMap = new HashMap<Point,Point>();
+	for (i = 0; i != elmList.size(); i++) {
+	    CircuitElm ce = getElm(i);
+	    if (!ce.isWireEquivalent())
+		continue;
+	    Point p1 = findWireGroup(ce.getPost(0));
+	    Point p2 = findWireGroup(ce.getPost(1));
+	    if (p1.equals(p2)) {
+		stop("Voltage source/wire loop with no resistance!", ce);
+		return;
+	    }
+	    wireGroupMap.put(new Point(p1), new Point(p2));
+	}
+	HashMap<Point,Integer> nodeMap = new HashMap<Point,Integer>();
+
 	// if no ground, and no rails, then the voltage elm's first terminal
 	// is ground
 	if (!gotGround && volt != null && !gotRail) {
@@ -791,6 +859,7 @@ public class CirSim extends JFrame
 	    Point pt = volt.getPost(0);
 	    cn.x = pt.x;
 	    cn.y = pt.y;
+	    nodeMap.put(new Point(findWireGroup(pt)), 0);
 	    nodeList.addElement(cn);
 	} else {
 	    // otherwise allocate extra node for ground
@@ -810,32 +879,39 @@ public class CirSim extends JFrame
 	    // allocate a node for each post and match posts to nodes
 	    for (j = 0; j != posts; j++) {
 		Point pt = ce.getPost(j);
-		int k;
-		for (k = 0; k != nodeList.size(); k++) {
-		    CircuitNode cn = getCircuitNode(k);
-		    if (pt.x == cn.x && pt.y == cn.y)
-			break;
-		}
-		if (k == nodeList.size()) {
+		CircuitNodeLink cnl = new CircuitNodeLink();
+		cnl.num = j;
+		cnl.elm = ce;
+		Vector<CircuitNodeLink> pl = postLinks.get(pt);
+		if (pl == null) {
+		    pl = new Vector<CircuitNodeLink>();
+		    postLinks.put(new Point(pt), pl);
+		}
+		pl.addElement(cnl);
+		Point root = findWireGroup(pt);
+		Integer k = nodeMap.get(root);
+		if (k == null) {
 		    CircuitNode cn = new CircuitNode();
 		    cn.x = pt.x;
 		    cn.y = pt.y;
-		    CircuitNodeLink cnl = new CircuitNodeLink();
-		    cnl.num = j;
-		    cnl.elm = ce;
 		    cn.links.addElement(cnl);
 		    ce.setNode(j, nodeList.size());
+		    nodeMap.put(new Point(root), nodeList.size());
 		    nodeList.addElement(cn);
 		} else {
-		    CircuitNodeLink cnl = new CircuitNodeLink();
-		    cnl.num = j;
-		    cnl.elm = ce;
 		    getCircuitNode(k).links.addElement(cnl);
 		    ce.setNode(j, k);
 		    // if it's the ground node, make sure the node voltage is 0,
-		    // cause it may not get set later
-		    if (k == 0)
-			ce.setNodeVoltage(j, 0);
+		    // cause it may not get set later.  Posts that only reach
+		    // ground through wires used to get their voltage from the
+		    // solver, so just clear them without disturbing any state
+		    // kept by setNodeVoltage().
+		    if (k == 0) {
+			if (pt.equals(volt.getPost(0)))
+			    ce.setNodeVoltage(j, 0);
+			else
+			    ce.volts[j] = 0;
+		    }
 		}
 	    }
 	    for (j = 0; j != inodes; j++) {
@@ -851,6 +927,7 @@ public class CirSim extends JFrame
 	    }
 	    vscount += ivs;
 	}
+	calcWireInfo();
 	voltageSources = new CircuitElm[vscount];
 	vscount = 0;
 	circuitNonLinear = false;
@@ -870,17 +947,32 @@ public class CirSim extends JFrame
 	voltageSourceCount = vscount;
 
 	int matrixSize = nodeList.size()-1 + vscount;
-	circuitMatrix = new double[matrixSize][matrixSize];
+	sparseMatrix = null;
+	if (iterativeCheckItem.getState() && !circuitNonLinear &&
+	    matrixSize >= IterativeSolver.minSize) {
+	    // stamp straight into sparse rows, so circuits far too big for
+	    // n*n doubles can still be simplified and solved
+	    sparseMatrix = new SparseMatrix(matrixSize);
+	    circuitMatrix = origMatrix = null;
+	} else {
+	    circuitMatrix = new double[matrixSize][matrixSize];
+	    origMatrix = new double[matrixSize][matrixSize];
+	}
 	circuitRightSide = new double[matrixSize];
-	origMatrix = new double[matrixSize][matrixSize];
 	origRightSide = new double[matrixSize];
+	stepRightSide = new double[matrixSize];
 	circuitMatrixSize = circuitMatrixFullSize = matrixSize;
 	circuitRowInfo = new RowInfo[matrixSize];
-	circuitPermute = new int[matrixSize];
 	//int vs = 0;
 	for (i = 0; i != matrixSize; i++)
 	    circuitRowInfo[i] = new RowInfo();
 	circuitNeedsMap = false;
+	detachedRow = null;
+	diodeBank = new DiodeBank();
+	transistorBank = new TransistorBank();
+	slotNode1 = new int[64];
+	slotNode2 = new int[64];
+	slotCount = 0;
 	
 	// stamp linear circuit elements
 	for (i = 0; i != elmList.size(); i++) {
@@ -956,8 +1048,8 @@ public class CirSim extends JFrame
 		}
 	    }
 	    // look for voltage source loops
-	    if ((ce instanceof VoltageElm && ce.getPostCount() == 2) ||
-		ce instanceof WireElm) {
+	    // (wire loops were already caught when merging nodes)
+	    if (ce instanceof VoltageElm && ce.getPostCount() == 2) {
 		FindPathInfo fpi = new FindPathInfo(FindPathInfo.VOLTAGE, ce,
 						    ce.getNode(1));
 		if (fpi.findPath(ce.getNode(0))) {
@@ -983,6 +1075,10 @@ public class CirSim extends JFrame
 	}
 	//System.out.println("ac6");
 
+	if (sparseMatrix != null)
+	    sparseMatrix.compact();
+	detachDrivenNodes(matrixSize);
+
 	// simplify the matrix; this speeds things up quite a bit
 	for (i = 0; i != matrixSize; i++) {
 	    int qm = -1, qp = -1;
@@ -994,9 +1090,18 @@ public class CirSim extends JFrame
 		continue;
 	    double rsadd = 0;
 
-	    // look for rows that can be removed
-	    for (j = 0; j != matrixSize; j++) {
-		double q = circuitMatrix[i][j];
+	    // look for rows that can be removed.  A sparse row has just its
+	    // nonzeros, in column order.
+	    int k, len = (sparseMatrix != null) ? sparseMatrix.len[i] : matrixSize;
+	    for (k = 0; k != len; k++) {
+		double q;
+		if (sparseMatrix != null) {
+		    j = sparseMatrix.cols[i][k];
+		    q = sparseMatrix.vals[i][k];
+		} else {
+		    j = k;
+		    q = circuitMatrix[i][j];
+		}
 		if (circuitRowInfo[j].type == RowInfo.ROW_CONST) {
 		    // keep a running total of const values that have been
 		    // removed already
@@ -1025,7 +1130,7 @@ public class CirSim extends JFrame
 		System.out.println("lschanges");
 		continue;
 		}*/
-	    if (j == matrixSize) {
+	    if (k == len) {
 		if (qp == -1) {
 		    stop("Matrix error", null);
 		    return;
@@ -1034,7 +1139,6 @@ public class CirSim extends JFrame
 		if (qm == -1) {
 		    // we found a row with only one nonzero entry; that value
 		    // is a constant
-		    int k;
 		    for (k = 0; elt.type == RowInfo.ROW_EQUAL && k < 100; k++) {
 			// follow the chain
 			/*System.out.println("following equal chain from " +
@@ -1137,37 +1241,85 @@ public class CirSim extends JFrame
 
 	// make the new, simplified matrix
 	int newsize = nn;
-	double newmatx[][] = new double[newsize][newsize];
 	double newrs  []   = new double[newsize];
-	int ii = 0;
-	for (i = 0; i != matrixSize; i++) {
-	    RowInfo rri = circuitRowInfo[i];
-	    if (rri.dropRow) {
-		rri.mapRow = -1;
-		continue;
+	if (sparseMatrix != null) {
+	    SparseMatrix newm = new SparseMatrix(newsize);
+	    int ii = 0;
+	    for (i = 0; i != matrixSize; i++) {
+		RowInfo rri = circuitRowInfo[i];
+		if (rri.dropRow) {
+		    rri.mapRow = -1;
+		    continue;
+		}
+		newrs[ii] = circuitRightSide[i];
+		rri.mapRow = ii;
+		int k;
+		for (k = 0; k != sparseMatrix.len[i]; k++) {
+		    RowInfo ri = circuitRowInfo[sparseMatrix.cols[i][k]];
+		    double q = sparseMatrix.vals[i][k];
+		    if (ri.type == RowInfo.ROW_CONST)
+			newrs[ii] -= ri.value*q;
+		    else
+			newm.add(ii, ri.mapCol, q);
+		}
+		ii++;
 	    }
-	    newrs[ii] = circuitRightSide[i];
-	    rri.mapRow = ii;
-	    //System.out.println("Row " + i + " maps to " + ii);
-	    for (j = 0; j != matrixSize; j++) {
-		RowInfo ri = circuitRowInfo[j];
-		if (ri.type == RowInfo.ROW_CONST)
-		    newrs[ii] -= ri.value*circuitMatrix[i][j];
-		else
-		    newmatx[ii][ri.mapCol] += circuitMatrix[i][j];
+	    // merge the columns that were made equal
+	    newm.compact();
+	    sparseMatrix = newm;
+	} else {
+	    double newmatx[][] = new double[newsize][newsize];
+	    int ii = 0;
+	    for (i = 0; i != matrixSize; i++) {
+		RowInfo rri = circuitRowInfo[i];
+		if (rri.dropRow) {
+		    rri.mapRow = -1;
+		    continue;
+		}
+		newrs[ii] = circuitRightSide[i];
+		rri.mapRow = ii;
+		//System.out.println("Row " + i + " maps to " + ii);
+		for (j = 0; j != matrixSize; j++) {
+		    RowInfo ri = circuitRowInfo[j];
+		    if (ri.type == RowInfo.ROW_CONST)
+			newrs[ii] -= ri.value*circuitMatrix[i][j];
+		    else
+			newmatx[ii][ri.mapCol] += circuitMatrix[i][j];
+		}
+		ii++;
 	    }
-	    ii++;
+	    circuitMatrix = newmatx;
 	}
 
-	circuitMatrix = newmatx;
 	circuitRightSide = newrs;
 	matrixSize = circuitMatrixSize = newsize;
 	for (i = 0; i != matrixSize; i++)
 	    origRightSide[i] = circuitRightSide[i];
-	for (i = 0; i != matrixSize; i++)
-	    for (j = 0; j != matrixSize; j++)
-		origMatrix[i][j] = circuitMatrix[i][j];
+	if (sparseMatrix == null)
+	    for (i = 0; i != matrixSize; i++)
+		for (j = 0; j != matrixSize; j++)
+		    origMatrix[i][j] = circuitMatrix[i][j];
 	circuitNeedsMap = true;
+	resolveSlots();
+	luValid = false;
+	matrixChecked = false;
+	stateSpaceGain = null;
+	blockSolver = null;
+	if (circuitNonLinear) {
+	    blockSolver = BlockSolver.create(this);
+	    luSource = new double[matrixSize][matrixSize];
+	}
+	iterativeSolver = null;
+	if (iterativeCheckItem.getState() && circuitMatrixSize >= IterativeSolver.minSize &&
+	    blockSolver == null)
+	    iterativeSolver = new IterativeSolver(circuitMatrixSize);
+	// simplification can leave a sparse matrix too small to bother with
+	if (iterativeSolver == null && sparseMatrix != null)
+	    makeDense();
+	bandSolver = null;
+	if (blockSolver == null && iterativeSolver == null)
+	    bandSolver = BandSolver.create(this);
+	denseSolver = null;
 
 	/*
 	System.out.println("matrixSize = " + matrixSize + " " + circuitNonLinear);
@@ -1180,11 +1332,309 @@ public class CirSim extends JFrame
 
 	// if a matrix is linear, we can do the lu_factor here instead of
 	// needing to do it every frame
+	int nonzeros = (sparseMatrix != null) ? sparseMatrix.countNonzeros() :
+	    SolverMetrics.countNonzeros(origMatrix, circuitMatrixSize);
 	if (!circuitNonLinear) {
-	    if (!lu_factor(circuitMatrix, circuitMatrixSize, circuitPermute)) {
+	    long t0 = System.nanoTime();
+	    // with the iterative solver, the matrix is left unfactored in
+	    // case we have to fall back to LU
+	    if (iterativeSolver != null && !iterativeSolver.factor(sparseMatrix))
+		iterativeSolver = null;
+	    if (iterativeSolver == null) {
+		if (sparseMatrix != null)
+		    makeDense();
+		if (bandSolver != null && !bandSolver.factor(circuitMatrix))
+		    bandSolver = null;
+		if (bandSolver == null && !denseFactor(circuitMatrix)) {
+		    stop("Singular matrix!", null);
+		    return;
+		}
+		calcStateSpace();
+	    }
+	    metrics.factored(System.nanoTime()-t0);
+	}
+	stepKernel = new StepKernel(this);
+	if (compileCheckItem.getState())
+	    stepKernel.compile();
+	metrics.analyzed(System.nanoTime()-analyzeStart, circuitMatrixSize, nonzeros);
+	// incomplete LU has no fill-in
+	if (!circuitNonLinear)
+	    metrics.setFill(nonzeros, (iterativeSolver != null) ? nonzeros :
+			    (bandSolver != null) ? bandSolver.countNonzeros() :
+			    denseSolver.countNonzeros());
+    }
+
+    // switch a sparse matrix to the dense matrices, for LU
+    void makeDense() {
+	circuitMatrix = sparseMatrix.toDense();
+	origMatrix = sparseMatrix.toDense();
+	sparseMatrix = null;
+    }
+
+    // factor the matrix with dense LU, allocating the solver the first
+    // time it's needed (not at all if a sparser method works)
+    boolean denseFactor(double a[][]) {
+	if (denseSolver == null)
+	    denseSolver = new DenseSolver(circuitMatrixSize);
+	return denseSolver.factor(a);
+    }
+
+    // solve a linear circuit with its factored matrix
+    void solveLinear(double b[]) {
+	if (bandSolver != null)
+	    bandSolver.solve(b);
+	else
+	    denseSolver.solve(b);
+    }
+
+    // solve with the iterative solver.  If it doesn't converge, use LU for
+    // this circuit from now on and return false, leaving the right side
+    // for the caller to solve with LU.
+    boolean iterativeSolve() {
+	if ((!circuitNonLinear || iterativeSolver.factor(circuitMatrix)) &&
+	    iterativeSolver.solve(circuitRightSide))
+	    return true;
+	metrics.iterativeFailed();
+	iterativeSolver = null;
+	if (!circuitNonLinear) {
+	    if (sparseMatrix != null)
+		makeDense();
+	    if (!denseFactor(circuitMatrix)) {
 		stop("Singular matrix!", null);
-		return;
+		return false;
+	    }
+	    calcStateSpace();
+	}
+	return false;
+    }
+
+    // Take out nodes driven by a grounded voltage source whose value is
+    // set in doStep(), like a logic output.  The node's voltage is just
+    // the source's value, so its column and the source's row go out of
+    // the matrix and updateVoltageSource() writes the value straight into
+    // the solution.  Rows that use the node's voltage (the linear analog
+    // loads on a logic output) see it as a known input on their right
+    // side.  The node's own KCL row stays, with the source current as
+    // its unknown; it only simplifies away when nothing else is on it.
+    // This is not event-driven: the gates are still evaluated in every
+    // subiteration, and they restamp their loads each time.
+    void detachDrivenNodes(int n) {
+	int i, j, k;
+	int nodeRows = nodeList.size()-1;
+	detachedRow = new int[voltageSourceCount];
+	detachedLoadSlot = new int[voltageSourceCount][];
+	detachedLoadCoef = new double[voltageSourceCount][];
+	for (i = 0; i != voltageSourceCount; i++)
+	    detachedRow[i] = -1;
+	for (i = nodeRows; i != n; i++) {
+	    RowInfo re = circuitRowInfo[i];
+	    if (re.dropRow || re.lsChanges || !re.rsChanges)
+		continue;
+	    // the source's row must be just V(node) = value
+	    int c = -1;
+	    for (j = 0; j != n; j++) {
+		if (matrixEntry(i, j) == 0)
+		    continue;
+		if (c != -1)
+		    break;
+		c = j;
+	    }
+	    if (j != n || c == -1 || c >= nodeRows || matrixEntry(i, c) != 1)
+		continue;
+	    RowInfo rc = circuitRowInfo[c];
+	    if (rc.type != RowInfo.ROW_NORMAL || rc.lsChanges)
+		continue;
+	    // nothing may stamp the node's voltage in doStep()
+	    CircuitNode cn = getCircuitNode(c+1);
+	    for (j = 0; j != cn.links.size(); j++)
+		if (cn.links.elementAt(j).elm.nonLinear())
+		    break;
+	    if (j != cn.links.size())
+		continue;
+	    int nl = 0;
+	    for (j = 0; j != n; j++)
+		if (j != i && matrixEntry(j, c) != 0)
+		    nl++;
+	    int slots[] = new int[nl];
+	    double coef[] = new double[nl];
+	    for (j = k = 0; j != n; j++) {
+		if (j == i || matrixEntry(j, c) == 0)
+		    continue;
+		circuitRowInfo[j].rsChanges = true;
+		slots[k] = addSlot(j+1, -1);
+		coef[k++] = matrixEntry(j, c);
 	    }
+	    rc.type = RowInfo.ROW_CONST;
+	    rc.value = 0;
+	    re.dropRow = true;
+	    detachedRow[i-nodeRows] = c;
+	    detachedLoadSlot[i-nodeRows] = slots;
+	    detachedLoadCoef[i-nodeRows] = coef;
+	}
+    }
+
+    // entry of the full matrix during analyzeCircuit(), dense or sparse
+    double matrixEntry(int i, int j) {
+	return (sparseMatrix != null) ? sparseMatrix.get(i, j) : circuitMatrix[i][j];
+    }
+
+    // For a linear circuit, the only thing that changes from step to step
+    // is the right side, and only in rows flagged by stampRightSide(n)
+    // (capacitor/inductor companion sources and time-varying sources).  So
+    // precompute the response to the constant right side (stateSpaceBase)
+    // and to a unit input in each changing row (stateSpaceGain[k]), and
+    // each step the solution is just stateSpaceBase + sum of u[k] *
+    // stateSpaceGain[k].  This is only worth it if there are few
+    // changing rows compared to the matrix size.
+    void calcStateSpace() {
+	int i, k;
+	int n = circuitMatrixSize;
+	stateSpaceGain = null;
+	stateSpaceInput = new boolean[n];
+	int m = 0;
+	for (i = 0; i != circuitMatrixFullSize; i++) {
+	    RowInfo ri = circuitRowInfo[i];
+	    if (ri.rsChanges && ri.mapRow >= 0 && !stateSpaceInput[ri.mapRow]) {
+		stateSpaceInput[ri.mapRow] = true;
+		m++;
+	    }
+	}
+	if (m*2 >= n)
+	    return;
+	stateSpaceRows = new int[m];
+	stateSpaceU = new double[m];
+	stateSpaceGain = new double[m][n];
+	k = 0;
+	for (i = 0; i != n; i++) {
+	    if (!stateSpaceInput[i])
+		continue;
+	    stateSpaceRows[k] = i;
+	    stateSpaceGain[k][i] = 1;
+	    solveLinear(stateSpaceGain[k]);
+	    k++;
+	}
+	stateSpaceBase = new double[n];
+	for (i = 0; i != n; i++)
+	    stateSpaceBase[i] = origRightSide[i];
+	solveLinear(stateSpaceBase);
+    }
+
+    // solve a linear circuit using the precomputed state space gains.
+    // Returns false if a row we didn't expect to change did, in which
+    // case the caller must do a full lu_solve().
+    boolean stateSpaceSolve() {
+	int i, k;
+	int n = circuitMatrixSize;
+	double b[] = circuitRightSide;
+	for (i = 0; i != n; i++)
+	    if (!stateSpaceInput[i] && b[i] != origRightSide[i])
+		return false;
+	int m = stateSpaceRows.length;
+	for (k = 0; k != m; k++) {
+	    int r = stateSpaceRows[k];
+	    stateSpaceU[k] = b[r]-origRightSide[r];
+	}
+	for (i = 0; i != n; i++)
+	    b[i] = stateSpaceBase[i];
+	for (k = 0; k != m; k++) {
+	    double u = stateSpaceU[k];
+	    if (u == 0)
+		continue;
+	    double g[] = stateSpaceGain[k];
+	    for (i = 0; i != n; i++)
+		b[i] += u*g[i];
+	}
+	return true;
+    }
+
+    // representative post of the group of posts joined by wires to pt
+    Point findWireGroup(Point pt) {
+	Point root = pt;
+	Point p;
+	while ((p = wireGroupMap.get(root)) != null)
+	    root = p;
+	// compress the path so later lookups are quick
+	while (!pt.equals(root)) {
+	    p = wireGroupMap.get(pt);
+	    wireGroupMap.put(pt, root);
+	    pt = p;
+	}
+	return root;
+    }
+
+    // number of element posts at point (x,y)
+    int getPostLinkCount(int x, int y) {
+	if (postLinks == null)
+	    return 0;
+	Vector<CircuitNodeLink> pl = postLinks.get(new Point(x, y));
+	return (pl == null) ? 0 : pl.size();
+    }
+
+    // order the merged wires so that each one's current can be found
+    // from elements whose currents are already known: non-wires, and
+    // wires earlier in the list.  We peel wires off from the leaves of
+    // each wire tree (wire loops were rejected above, so there are no
+    // cycles and every wire gets resolved).
+    void calcWireInfo() {
+	HashMap<Point,Integer> pending = new HashMap<Point,Integer>();
+	HashMap<CircuitElm,Boolean> resolved = new HashMap<CircuitElm,Boolean>();
+	int i, p;
+	for (i = 0; i != elmList.size(); i++) {
+	    CircuitElm ce = getElm(i);
+	    if (!ce.isWireEquivalent())
+		continue;
+	    for (p = 0; p != 2; p++) {
+		Point pt = ce.getPost(p);
+		Integer c = pending.get(pt);
+		pending.put(new Point(pt), (c == null) ? 1 : c+1);
+	    }
+	}
+	Vector<Point> queue = new Vector<Point>();
+	for (Point pt : pending.keySet())
+	    if (pending.get(pt) == 1)
+		queue.addElement(pt);
+	while (!queue.isEmpty()) {
+	    Point pt = queue.remove(queue.size()-1);
+	    if (pending.get(pt) != 1)
+		continue;
+	    Vector<CircuitNodeLink> pl = postLinks.get(pt);
+	    CircuitElm wire = null;
+	    for (i = 0; i != pl.size(); i++) {
+		CircuitElm ce = pl.elementAt(i).elm;
+		if (ce.isWireEquivalent() && resolved.get(ce) == null) {
+		    wire = ce;
+		    break;
+		}
+	    }
+	    CircuitNodeLink nb[] = new CircuitNodeLink[pl.size()-1];
+	    int n = 0;
+	    for (i = 0; i != pl.size(); i++)
+		if (pl.elementAt(i).elm != wire)
+		    nb[n++] = pl.elementAt(i);
+	    p = (wire.getPost(0).equals(pt)) ? 0 : 1;
+	    wireInfoList.addElement(new WireInfo(wire, p, nb));
+	    resolved.put(wire, true);
+	    pending.put(pt, 0);
+	    Point other = wire.getPost(1-p);
+	    int c = pending.get(other)-1;
+	    pending.put(other, c);
+	    if (c == 1)
+		queue.addElement(other);
+	}
+    }
+
+    // find the currents in merged wires by summing the currents flowing
+    // into their nodes from the neighboring elements (KCL)
+    void calcWireCurrents() {
+	int i, j;
+	for (i = 0; i != wireInfoList.size(); i++) {
+	    WireInfo wi = wireInfoList.elementAt(i);
+	    double cur = 0;
+	    for (j = 0; j != wi.neighbors.length; j++) {
+		CircuitNodeLink cnl = wi.neighbors[j];
+		cur += cnl.elm.getCurrentIntoNode(cnl.num);
+	    }
+	    wi.wire.setCurrent(-1, (wi.post == 0) ? cur : -cur);
 	}
     }
 
@@ -1300,6 +1750,7 @@ public class CirSim extends JFrame
     void stop(String s, CircuitElm ce) {
 		stopMessage = s;
 		circuitMatrix = null;
+		sparseMatrix = null;
 		stopElm = ce;
 		stoppedCheck.setSelected(true);
 		analyzeFlag = false;
@@ -1335,6 +1786,15 @@ public class CirSim extends JFrame
     }
     
     void updateVoltageSource(int n1, int n2, int vs, double v) {
+    	if (detachedRow != null && detachedRow[vs] >= 0) {
+    		stepKernel.rowConst[detachedRow[vs]] = v;
+    		int slots[] = detachedLoadSlot[vs];
+    		double coef[] = detachedLoadCoef[vs];
+    		int i;
+    		for (i = 0; i != slots.length; i++)
+    			stampRightSideSlot(slots[i], -coef[i]*v);
+    		return;
+    	}
     	int vn = nodeList.size()+vs;
     	stampRightSide(vn, v);
     }
@@ -1398,10 +1858,86 @@ public class CirSim extends JFrame
 			i--;
 			j--;
 		    }
-		    circuitMatrix[i][j] += x;
+		    if (sparseMatrix != null)
+			sparseMatrix.add(i, j, x);
+		    else
+			circuitMatrix[i][j] += x;
+		}
+    }
+
+    // get a handle for stamping row i, column j of the matrix in doStep().
+    // Must be called from stamp().
+    int getMatrixSlot(int i, int j) {
+		return addSlot(i, j);
+    }
+
+    // get a handle for stamping the right side of row i in doStep().
+    // Must be called from stamp().
+    int getRightSideSlot(int i) {
+		return addSlot(i, -1);
+    }
+
+    int addSlot(int i, int j) {
+		if (slotCount == slotNode1.length) {
+		    int n1[] = new int[slotCount*2];
+		    int n2[] = new int[slotCount*2];
+		    System.arraycopy(slotNode1, 0, n1, 0, slotCount);
+		    System.arraycopy(slotNode2, 0, n2, 0, slotCount);
+		    slotNode1 = n1;
+		    slotNode2 = n2;
+		}
+		slotNode1[slotCount] = i;
+		slotNode2[slotCount] = j;
+		return slotCount++;
+    }
+
+    // map each slot to its row and column in the simplified matrix.  A
+    // slot in a constant column is folded into the right side of its row
+    // (slotCol = -1, scaled by slotConst); a slot on the ground node gets
+    // slotRow = -1 and is ignored.
+    void resolveSlots() {
+		int s;
+		slotRow = new int[slotCount];
+		slotCol = new int[slotCount];
+		slotConst = new double[slotCount];
+		for (s = 0; s != slotCount; s++) {
+		    int i = slotNode1[s];
+		    int j = slotNode2[s];
+		    slotCol[s] = -1;
+		    if (i <= 0 || j == 0) {
+			slotRow[s] = -1;
+			continue;
+		    }
+		    slotRow[s] = circuitRowInfo[i-1].mapRow;
+		    if (j < 0)
+			continue;
+		    RowInfo ri = circuitRowInfo[j-1];
+		    if (ri.type == RowInfo.ROW_CONST)
+			slotConst[s] = -ri.value;
+		    else
+			slotCol[s] = ri.mapCol;
 		}
     }
 
+    // same as stampMatrix() for a slot from getMatrixSlot()
+    void stampSlot(int s, double x) {
+		int i = slotRow[s];
+		if (i < 0)
+		    return;
+		int j = slotCol[s];
+		if (j >= 0)
+		    circuitMatrix[i][j] += x;
+		else
+		    circuitRightSide[i] += x*slotConst[s];
+    }
+
+    // same as stampRightSide() for a slot from getRightSideSlot()
+    void stampRightSideSlot(int s, double x) {
+		int i = slotRow[s];
+		if (i >= 0)
+		    circuitRightSide[i] += x;
+    }
+
     // stamp value x on the right side of row i, representing an
     // independent current source flowing into node i
     void stampRightSide(int i, double x) {
@@ -1437,9 +1973,25 @@ public class CirSim extends JFrame
     
     boolean converged;
     int subIterations;
+    // number of times an element's limitStep() cut down a Newton update
+    int limitedSteps;
+    // per-element convergence record, null unless it is being collected
+    ConvergenceStats convergenceStats;
+    // used instead of LU for large matrices if the option is on
+    IterativeSolver iterativeSolver;
+    // used instead of dense LU if the matrix is narrowly banded
+    BandSolver bandSolver;
+    // dense LU, for everything else
+    DenseSolver denseSolver;
+    boolean matrixChecked;
+    // writing waveforms to a file, or null
+    volatile WaveformExporter exporter;
+    // solver counters and timings, also published over JMX
+    SolverMetrics metrics = new SolverMetrics();
     void runCircuit() {
-		if (circuitMatrix == null || elmList.size() == 0) {
+		if ((circuitMatrix == null && sparseMatrix == null) || elmList.size() == 0) {
 		    circuitMatrix = null;
+		    sparseMatrix = null;
 		    return;
 		}
 		int iter;
@@ -1452,41 +2004,61 @@ public class CirSim extends JFrame
 		if (1000 >= steprate*(tm-lastIterTime))
 		    return;
 		for (iter = 1; ; iter++) {
-		    int i, j, k, subiter;
-		    for (i = 0; i != elmList.size(); i++) {
-				CircuitElm ce = getElm(i);
-				ce.startIteration();
-		    }
+		    int i, j, subiter;
+		    stepKernel.startIteration();
+		    // the sources don't change during the timestep, so evaluate
+		    // them once and start each subiteration from the result
+		    for (i = 0; i != circuitMatrixSize; i++)
+		    	circuitRightSide[i] = origRightSide[i];
+		    stepKernel.stepSources();
+		    System.arraycopy(circuitRightSide, 0, stepRightSide, 0, circuitMatrixSize);
 		    steps++;
 		    final int subiterCount = 5000;
 		    for (subiter = 0; subiter != subiterCount; subiter++) {
 				converged = true;
 				subIterations = subiter;
 				for (i = 0; i != circuitMatrixSize; i++)
-				    circuitRightSide[i] = origRightSide[i];
-				if (circuitNonLinear) {
+				    circuitRightSide[i] = stepRightSide[i];
+				// the block solver restores each block's stamps itself
+				if (circuitNonLinear && blockSolver == null) {
 				    for (i = 0; i != circuitMatrixSize; i++)
 				    	for (j = 0; j != circuitMatrixSize; j++)
 				    		circuitMatrix[i][j] = origMatrix[i][j];
 				}
-				for (i = 0; i != elmList.size(); i++) {
-				    CircuitElm ce = getElm(i);
-				    ce.doStep();
-				}
+				if (blockSolver != null)
+				    blockSolver.doStep();
+				else
+				    stepKernel.doStep();
+				diodeBank.evaluate();
+				transistorBank.evaluate();
 				if (stopMessage != null)
 				    return;
 				boolean printit = debugprint;
 				debugprint = false;
-				for (j = 0; j != circuitMatrixSize; j++) {
+				// a linear circuit's matrix doesn't change after
+				// analyzeCircuit(), so it only needs checking once
+				if (sparseMatrix != null && !matrixChecked) {
+				    if (!sparseMatrix.isFinite()) {
+				    	stop("nan/infinite matrix!", null);
+				    	return;
+				    }
+				    matrixChecked = true;
+				}
+				// the block solver checks the entries that changed
+				if ((circuitNonLinear && blockSolver == null) || !matrixChecked) {
 				    for (i = 0; i != circuitMatrixSize; i++) {
-						double x = circuitMatrix[i][j];
-						if (Double.isNaN(x) || Double.isInfinite(x)) {
-						    stop("nan/infinite matrix!", null);
-						    return;
-						}
+				    	double row[] = circuitMatrix[i];
+				    	for (j = 0; j != circuitMatrixSize; j++) {
+				    		double x = row[j];
+				    		if (Double.isNaN(x) || Double.isInfinite(x)) {
+				    			stop("nan/infinite matrix!", null);
+				    			return;
+				    		}
+				    	}
 				    }
+				    matrixChecked = true;
 				}
-				if (printit) {
+				if (printit && circuitMatrix != null) {
 				    for (j = 0; j != circuitMatrixSize; j++) {
 						for (i = 0; i != circuitMatrixSize; i++)
 						    System.out.print(circuitMatrix[j][i] + ",");
@@ -1497,59 +2069,94 @@ public class CirSim extends JFrame
 				if (circuitNonLinear) {
 				    if (converged && subiter > 0)
 				    	break;
-				    if (!lu_factor(circuitMatrix, circuitMatrixSize, circuitPermute)) {
-				    	stop("Singular matrix!", null);
-				    	return;
-				    }
-				}
-				lu_solve(circuitMatrix, circuitMatrixSize, circuitPermute, circuitRightSide);
-				
-				for (j = 0; j != circuitMatrixFullSize; j++) {
-				    RowInfo ri = circuitRowInfo[j];
-				    double res = 0;
-				    if (ri.type == RowInfo.ROW_CONST)
-				    	res = ri.value;
-				    else
-				    	res = circuitRightSide[ri.mapCol];
-				    /*System.out.println(j + " " + res + " " + ri.type + " " + ri.mapCol);*/
-				    if (Double.isNaN(res)) {
-						converged = false;
-						//debugprint = true;
-						break;
-				    }
-				    if (j < nodeList.size()-1) {
-						CircuitNode cn = getCircuitNode(j+1);
-						for (k = 0; k != cn.links.size(); k++) {
-						    CircuitNodeLink cnl = (CircuitNodeLink) cn.links.elementAt(k);
-						    cnl.elm.setNodeVoltage(cnl.num, res);
-						}
+				    // if every nonlinear element was bypassed the matrix is
+				    // the same as last time, so reuse the old factorization
+				    long t0 = System.nanoTime();
+				    if (blockSolver != null) {
+				    	if (!blockSolver.solve(circuitRightSide)) {
+				    		stop(blockSolver.gotNaN ? "nan/infinite matrix!" :
+				    		     "Singular matrix!", null);
+				    		return;
+				    	}
+				    	if (blockSolver.refactored > 0) {
+				    		metrics.factored(blockSolver.factorTime);
+				    		if (metrics.fillIn < 0)
+				    			metrics.setFill(blockSolver.countNonzeros(false),
+				    					blockSolver.countNonzeros(true));
+				    	}
+				    	metrics.solved(blockSolver.solveTime);
+				    } else if (iterativeSolver != null && iterativeSolve()) {
+				    	metrics.solved(System.nanoTime()-t0);
 				    } else {
-						int ji = j-(nodeList.size()-1);
-						//System.out.println("setting vsrc " + ji + " to " + res);
-						voltageSources[ji].setCurrent(ji, res);
+				    	if (stopMessage != null)
+				    		return;
+				    	if (!luValid || !matrixEquals(circuitMatrix, luSource, circuitMatrixSize)) {
+				    		for (i = 0; i != circuitMatrixSize; i++)
+				    			System.arraycopy(circuitMatrix[i], 0, luSource[i], 0, circuitMatrixSize);
+				    		// fall back to dense LU if the band solver
+				    		// can't handle this matrix
+				    		if (bandSolver != null && !bandSolver.factor(circuitMatrix))
+				    			bandSolver = null;
+				    		if (bandSolver == null && !denseFactor(circuitMatrix)) {
+				    			stop("Singular matrix!", null);
+				    			return;
+				    		}
+				    		luValid = true;
+				    		metrics.factored(System.nanoTime()-t0);
+				    		if (metrics.fillIn < 0)
+				    			metrics.setFill(SolverMetrics.countNonzeros(luSource, circuitMatrixSize),
+				    					(bandSolver != null) ? bandSolver.countNonzeros() :
+				    					denseSolver.countNonzeros());
+				    		t0 = System.nanoTime();
+				    	}
+				    	if (bandSolver != null)
+				    		bandSolver.solve(circuitRightSide);
+				    	else
+				    		denseSolver.solve(circuitRightSide);
+				    	metrics.solved(System.nanoTime()-t0);
+				    }
+				} else {
+				    long t0 = System.nanoTime();
+				    if (iterativeSolver == null || !iterativeSolve()) {
+				    	if (stopMessage != null)
+				    		return;
+				    	if (stateSpaceGain == null || !stateSpaceSolve())
+				    		solveLinear(circuitRightSide);
 				    }
+				    metrics.solved(System.nanoTime()-t0);
 				}
+				
+				if (!stepKernel.writeBack(circuitRightSide))
+				    converged = false;
 				if (!circuitNonLinear)
 				    break;
 		    }
+		    metrics.step(subiter);
+		    if (convergenceStats != null)
+		    	convergenceStats.addStep(subiter);
 		    if (subiter > 5)
 		    	System.out.print("converged after " + subiter + " iterations\n");
 		    if (subiter == subiterCount) {
 		    	stop("Convergence failed!", null);
 		    	break;
 		    }
+		    calcWireCurrents();
 		    t += timeStep;
 		    for ( Iterator<Oscilloscope> oi = scopes.iterator(); oi.hasNext(); ) {
 		    	oi.next().timeStep();
 		    }
 		    for (i = 0; i != scopeCount; i++)
 		    	original_scopes[i].timeStep();
+		    WaveformExporter ex = exporter;
+		    if (ex != null)
+		    	ex.timeStep(t);
 		    tm = System.currentTimeMillis();
 		    lit = tm;
 		    if (iter*1000 >= steprate*(tm-lastIterTime) || (tm-lastFrameTime > 500))
 		    	break;
 		}
 		lastIterTime = lit;
+		metrics.sample(t);
 		//System.out.println((System.currentTimeMillis()-lastFrameTime)/(double) iter);
     }
 
@@ -1612,6 +2219,12 @@ public class CirSim extends JFrame
 		    doExport();
 		if (e.getSource() == optionsItem)
 		    doEdit(new EditOptions(this));
+		if (e.getSource() == convergenceReportItem)
+		    doConvergenceReport();
+		if (e.getSource() == exportWaveformsItem)
+		    doExportWaveforms();
+		if (e.getSource() == stopExportItem)
+		    stopExport();
 		if (e.getSource() == importItem)
 		    doImport();
 		if (e.getSource() == undoItem)
@@ -1795,6 +2408,70 @@ public class CirSim extends JFrame
     	pushUndo();
     }
     
+    // show the elements that held up the Newton iteration, worst first
+    void doConvergenceReport() {
+    	String s = (convergenceStats == null) ?
+    		"Convergence statistics are not being collected.\n" +
+    		"Turn on Options/Collect Convergence Statistics and run the circuit.\n" :
+    		convergenceStats.getReport(elmList);
+    	JTextArea text = new JTextArea(s, 20, 60);
+    	text.setFont(new Font("Monospaced", Font.PLAIN, 12));
+    	text.setEditable(false);
+    	JOptionPane.showMessageDialog(this, new JScrollPane(text), "Convergence Report",
+    				      JOptionPane.PLAIN_MESSAGE);
+    }
+    
+    // stream the selected elements' voltage, current and power to a file
+    // as the circuit runs
+    void doExportWaveforms() {
+    	Vector<CircuitElm> sel = new Vector<CircuitElm>();
+    	int i;
+    	for (i = 0; i != elmList.size(); i++) {
+    		CircuitElm ce = getElm(i);
+    		if (ce.isSelected() && !(ce instanceof TextElm))
+    			sel.addElement(ce);
+    	}
+    	if (sel.size() == 0) {
+    		JOptionPane.showMessageDialog(this, "Select the elements to export first.");
+    		return;
+    	}
+    	if (fileChooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION)
+    		return;
+    	String s = JOptionPane.showInputDialog(this,
+    		"Write every Nth step (files ending in .csv are text, others binary):", "1");
+    	if (s == null)
+    		return;
+    	int dec;
+    	try {
+    		dec = Integer.parseInt(s.trim());
+    	} catch (NumberFormatException e) {
+    		dec = 1;
+    	}
+    	if (exporter != null)
+    		stopExport();
+    	CircuitElm elms[] = new CircuitElm[sel.size()];
+    	sel.copyInto(elms);
+    	WaveformExporter ex = new WaveformExporter(this, elms, fileChooser.getSelectedFile(), dec);
+    	ex.start();
+    	exporter = ex;
+    	stopExportItem.setEnabled(true);
+    }
+    
+    void stopExport() {
+    	WaveformExporter ex = exporter;
+    	exporter = null;
+    	stopExportItem.setEnabled(false);
+    	if (ex == null)
+    		return;
+    	ex.stop();
+    	String s = "Wrote " + ex.tail.get() + " steps to " + ex.file.getName() + ".";
+    	if (ex.dropped > 0)
+    		s += "\n" + ex.dropped + " steps were dropped because the disk fell behind.";
+    	if (ex.error != null)
+    		s += "\nError: " + ex.error.getMessage();
+    	JOptionPane.showMessageDialog(this, s);
+    }
+    
     String dumpCircuit() {
 		int i;
 		int f = (dotsCheckItem.getState()) ? 1 : 0;
@@ -2596,6 +3273,13 @@ public class CirSim extends JFrame
 		
 		if (mi == smallGridCheckItem)
 		    setGrid();
+		if (mi == iterativeCheckItem || mi == compileCheckItem)
+		    needAnalyze();
+		if (mi == convergenceStatsCheckItem) {
+		    convergenceStats = (convergenceStatsCheckItem.getState()) ? new ConvergenceStats() : null;
+		    if (stepKernel != null)
+		    	stepKernel.setStats(convergenceStats);
+		}
 		enableItems();
 		if (menuScope != -1) {
 		    Scope sc = original_scopes[menuScope];
@@ -2841,29 +3525,29 @@ public class CirSim extends JFrame
 	tempMouseMode = mouseMode;
     }
     
+    boolean matrixEquals(double a[][], double b[][], int n) {
+	int i, j;
+	for (i = 0; i != n; i++)
+	    for (j = 0; j != n; j++)
+		if (a[i][j] != b[i][j])
+		    return false;
+	return true;
+    }
+
     // factors a matrix into upper and lower triangular matrices by
     // gaussian elimination.  On entry, a[0..n-1][0..n-1] is the
     // matrix to be factored.  ipvt[] returns an integer vector of pivot
     // indices, used in the lu_solve() routine.
     boolean lu_factor(double a[][], int n, int ipvt[]) {
-	double scaleFactors[];
 	int i,j,k;
 
-	scaleFactors = new double[n];
-	
-        // divide each row by its largest element, keeping track of the
-	// scaling factors
+	// if a row is all zeros, it's a singular matrix
 	for (i = 0; i != n; i++) { 
-	    double largest = 0;
-	    for (j = 0; j != n; j++) {
-		double x = Math.abs(a[i][j]);
-		if (x > largest)
-		    largest = x;
-	    }
-	    // if all zeros, it's a singular matrix
-	    if (largest == 0)
+	    for (j = 0; j != n; j++)
+		if (Math.abs(a[i][j]) > 0)
+		    break;
+	    if (j == n)
 		return false;
-	    scaleFactors[i] = 1.0/largest;
 	}
 	
         // use Crout's method; loop through the columns
@@ -2900,7 +3584,6 @@ public class CirSim extends JFrame
 		    a[largestRow][k] = a[j][k];
 		    a[j][k] = x;
 		}
-		scaleFactors[largestRow] = scaleFactors[j];
 	    }
 
 	    // keep track of row interchanges
@@ -3068,6 +3751,10 @@ public class CirSim extends JFrame
 		    m.add(saveItem = getMenuItem("Save File"));
 		    m.add(loadItem = getMenuItem("Open File"));
 		    m.addSeparator();
+		    m.add(exportWaveformsItem = getMenuItem("Export Waveforms..."));
+		    m.add(stopExportItem = getMenuItem("Stop Waveform Export"));
+		    stopExportItem.setEnabled(false);
+		    m.addSeparator();
 	    }
 		m.add(importItem = getMenuItem("Import Text"));
 		m.add(exportItem = getMenuItem("Export Text"));
@@ -3117,6 +3804,10 @@ public class CirSim extends JFrame
 	    if (conventionalString != null && conventionalString.equalsIgnoreCase("true"))
 	    	convention = false;
 		m.add(conventionCheckItem = getCheckItem("Conventional Current Motion", convention));
+		m.add(iterativeCheckItem = getCheckItem("Iterative Solver (Large Circuits)"));
+		m.add(compileCheckItem = getCheckItem("Compile Step Kernel"));
+		m.add(convergenceStatsCheckItem = getCheckItem("Collect Convergence Statistics"));
+		m.add(convergenceReportItem = getMenuItem("Convergence Report..."));
 		m.add(optionsItem = getMenuItem("Other Options..."));
 		
 		circuitsMenu = new JMenu("Circuits");
@@ -3161,6 +3852,7 @@ public class CirSim extends JFrame
 		inputMenu.add(getClassCheckItem("Add A/C Sweep", "SweepElm"));
 		inputMenu.add(getClassCheckItem("Add Var. Voltage", "VarRailElm"));
 		inputMenu.add(getClassCheckItem("Add Antenna", "AntennaElm"));
+		inputMenu.add(getClassCheckItem("Add PWL Source (from file)", "PWLRailElm"));
 		inputMenu.add(getClassCheckItem("Add Current Source", "CurrentElm"));
 		inputMenu.add(getClassCheckItem("Add LED", "LEDElm"));
 		inputMenu.add(getClassCheckItem("Add Lamp (beta)", "LampElm"));
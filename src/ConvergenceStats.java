@@ -0,0 +1,118 @@
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.Vector;
+
+    // per-element record of what holds up the Newton iteration.  Any
+    // element can clear sim.converged, so while collecting StepKernel runs
+    // each doStep() with the flag set and charges the element if it cleared
+    // it.  Entries are kept per element object, so they survive
+    // analyzeCircuit() as long as the element stays in the circuit.
+    class ConvergenceStats {
+	static class Entry {
+	    CircuitElm elm;
+	    // subiterations (after the first of a timestep) in which the
+	    // element reported it had not converged
+	    int failures;
+	    // times its limitStep() cut down a junction voltage update
+	    int limits;
+	    // largest change of a post voltage between subiterations in which
+	    // it had not converged
+	    double maxDelta;
+	    double lastVolts[];
+
+	    Entry(CircuitElm ce) {
+		elm = ce;
+		lastVolts = new double[ce.volts.length];
+	    }
+	}
+
+	IdentityHashMap<CircuitElm, Entry> entries = new IdentityHashMap<CircuitElm, Entry>();
+	long steps, subIterations;
+	int maxSubIterations;
+
+	Entry getEntry(CircuitElm ce) {
+	    Entry e = entries.get(ce);
+	    if (e == null)
+		entries.put(ce, e = new Entry(ce));
+	    return e;
+	}
+
+	// charge one doStep() to an element.  limits is the number of
+	// limitStep() cuts it made.
+	void record(Entry e, int subiter, boolean failed, int limits) {
+	    double v[] = e.elm.volts;
+	    int k;
+	    if (failed && subiter > 0) {
+		e.failures++;
+		for (k = 0; k != v.length; k++) {
+		    double d = Math.abs(v[k]-e.lastVolts[k]);
+		    if (d > e.maxDelta)
+			e.maxDelta = d;
+		}
+	    }
+	    e.limits += limits;
+	    System.arraycopy(v, 0, e.lastVolts, 0, v.length);
+	}
+
+	// count a finished timestep that took subiter subiterations
+	void addStep(int subiter) {
+	    steps++;
+	    subIterations += subiter;
+	    if (subiter > maxSubIterations)
+		maxSubIterations = subiter;
+	}
+
+	void clear() {
+	    entries.clear();
+	    steps = subIterations = 0;
+	    maxSubIterations = 0;
+	}
+
+	// elements still in elmList that had trouble converging, worst first
+	Entry[] getRanked(Vector<CircuitElm> elmList) {
+	    Vector<Entry> v = new Vector<Entry>();
+	    int i;
+	    for (i = 0; i != elmList.size(); i++) {
+		Entry e = entries.get(elmList.elementAt(i));
+		if (e != null && (e.failures > 0 || e.limits > 0))
+		    v.addElement(e);
+	    }
+	    Entry r[] = new Entry[v.size()];
+	    v.copyInto(r);
+	    Arrays.sort(r, new Comparator<Entry>() {
+		public int compare(Entry a, Entry b) {
+		    if (a.failures != b.failures)
+			return (a.failures > b.failures) ? -1 : 1;
+		    if (a.limits != b.limits)
+			return (a.limits > b.limits) ? -1 : 1;
+		    return Double.compare(b.maxDelta, a.maxDelta);
+		}
+	    });
+	    return r;
+	}
+
+	String getReport(Vector<CircuitElm> elmList) {
+	    StringBuilder sb = new StringBuilder();
+	    sb.append(steps + " timesteps, " + subIterations + " subiterations (max " +
+		      maxSubIterations + " in one step)\n\n");
+	    Entry r[] = getRanked(elmList);
+	    if (r.length == 0) {
+		sb.append("No element held up convergence.\n");
+		return sb.toString();
+	    }
+	    sb.append("failures  limited  max dV     element\n");
+	    String info[] = new String[10];
+	    int i;
+	    for (i = 0; i != r.length; i++) {
+		Entry e = r[i];
+		info[0] = null;
+		e.elm.getInfo(info);
+		String name = (info[0] != null) ? info[0] : e.elm.getClass().getName();
+		sb.append(String.format("%8d %8d  %-10s %s (%d,%d)-(%d,%d)\n", e.failures, e.limits,
+					CircuitElm.getVoltageText(e.maxDelta), name,
+					e.elm.x, e.elm.y, e.elm.x2, e.elm.y2));
+	    }
+	    return sb.toString();
+	}
+    }
@@ -0,0 +1,162 @@
+    // dense LU solver for the matrices that aren't worth doing any other
+    // way.  It does the same elimination as lu_factor(), with the same
+    // pivots and the same order of operations on each entry (so the same
+    // results to the bit), but keeps the factors in one row-major array
+    // and works right-looking: each pivot row is subtracted from the rows
+    // below it a whole row at a time, so the inner loops run along
+    // contiguous memory instead of down columns.  Columns are done in
+    // blocks, so the rows of the trailing matrix are brought into the
+    // cache once per block instead of once per column.  All storage is
+    // allocated once per circuit.
+    class DenseSolver {
+	int n;
+	// the factors, row i at i*n: L (unit diagonal) below the diagonal,
+	// U on and above it
+	double lu[];
+	int pivot[];
+
+	static final int blockSize = 32;
+
+	DenseSolver(int size) {
+	    n = size;
+	    lu = new double[n*n];
+	    pivot = new int[n];
+	}
+
+	// copy a in and factor it.  Returns false if a row is all zeros.
+	boolean factor(double a[][]) {
+	    int i;
+	    for (i = 0; i != n; i++)
+		System.arraycopy(a[i], 0, lu, i*n, n);
+	    return factor();
+	}
+
+	boolean factor() {
+	    int i, j, k, kb;
+	    double a[] = lu;
+	    // if a row is all zeros, it's a singular matrix
+	    for (i = 0; i != n; i++) {
+		int r = i*n;
+		for (j = 0; j != n; j++)
+		    if (Math.abs(a[r+j]) > 0)
+			break;
+		if (j == n)
+		    return false;
+	    }
+	    for (kb = 0; kb < n; kb += blockSize) {
+		int ke = Math.min(n, kb+blockSize);
+
+		// factor the panel of columns kb..ke-1
+		for (k = kb; k != ke; k++) {
+		    int rk = k*n;
+		    // pivot on the largest entry in the column (the last
+		    // one, if there's a tie, like lu_factor())
+		    double largest = 0;
+		    int largestRow = -1;
+		    for (i = k; i != n; i++) {
+			double x = Math.abs(a[i*n+k]);
+			if (x >= largest) {
+			    largest = x;
+			    largestRow = i;
+			}
+		    }
+		    if (largestRow != k) {
+			int rp = largestRow*n;
+			for (j = 0; j != n; j++) {
+			    double x = a[rp+j];
+			    a[rp+j] = a[rk+j];
+			    a[rk+j] = x;
+			}
+		    }
+		    pivot[k] = largestRow;
+
+		    // avoid zeros
+		    if (a[rk+k] == 0.0) {
+			System.out.println("avoided zero");
+			a[rk+k] = 1e-18;
+		    }
+
+		    double mult = 1.0/a[rk+k];
+		    for (i = k+1; i != n; i++) {
+			int ri = i*n;
+			double f = a[ri+k] *= mult;
+			for (j = k+1; j != ke; j++)
+			    a[ri+j] -= f*a[rk+j];
+		    }
+		}
+		if (ke == n)
+		    break;
+
+		// rows kb..ke-1 of U to the right of the panel
+		for (i = kb+1; i != ke; i++) {
+		    int ri = i*n;
+		    for (k = kb; k != i; k++)
+			update(a, ri, k*n, a[ri+k], ke);
+		}
+
+		// and subtract the panel from the trailing matrix, a block of
+		// pivot rows at a time
+		for (i = ke; i != n; i++) {
+		    int ri = i*n;
+		    for (k = kb; k != ke; k++)
+			update(a, ri, k*n, a[ri+k], ke);
+		}
+	    }
+	    return true;
+	}
+
+	// subtract f times row rk from row ri, from column j0 on
+	void update(double a[], int ri, int rk, double f, int j0) {
+	    if (f == 0)
+		return;
+	    int j;
+	    for (j = j0; j != n; j++)
+		a[ri+j] -= f*a[rk+j];
+	}
+
+	// nonzeros in the factors
+	int countNonzeros() {
+	    int i, c = 0;
+	    for (i = 0; i != n*n; i++)
+		if (lu[i] != 0)
+		    c++;
+	    return c;
+	}
+
+	// solve using the last factorization, like lu_solve().  b holds
+	// the right side on entry and the solution on exit.
+	void solve(double b[]) {
+	    double a[] = lu;
+	    int i, j;
+
+	    // find first nonzero b element
+	    for (i = 0; i != n; i++) {
+		int row = pivot[i];
+		double swap = b[row];
+		b[row] = b[i];
+		b[i] = swap;
+		if (swap != 0)
+		    break;
+	    }
+
+	    int bi = i++;
+	    for (; i < n; i++) {
+		int row = pivot[i];
+		int ri = i*n;
+		double tot = b[row];
+		b[row] = b[i];
+		// forward substitution using the lower triangular matrix
+		for (j = bi; j < i; j++)
+		    tot -= a[ri+j]*b[j];
+		b[i] = tot;
+	    }
+	    for (i = n-1; i >= 0; i--) {
+		int ri = i*n;
+		double tot = b[i];
+		// back-substitution using the upper triangular matrix
+		for (j = i+1; j != n; j++)
+		    tot -= a[ri+j]*b[j];
+		b[i] = tot/a[ri+i];
+	    }
+	}
+    }
@@ -10,6 +10,7 @@ class Diode {
     void setup(double fw, double zv) {
 	fwdrop = fw;
 	zvoltage = zv;
+	bypassValid = false;
 	vdcoef = Math.log(1/leakage + 1)/fwdrop;
 	vt = 1/vdcoef;
 	// critical voltage for limiting; current is vt/sqrt(2) at
@@ -26,11 +27,20 @@ class Diode {
 	
     void reset() {
 	lastvoltdiff = 0;
+	bypassValid = false;
     }
 	
     public double leakage = 1e-14; // was 1e-9;
     double vt, vdcoef, fwdrop, zvoltage, zoffset;
     double lastvoltdiff;
+    // junction voltage and stamps from the last evaluation, for bypass
+    double bypassVoltdiff, bypassGeq, bypassNc;
+    boolean bypassValid;
+    // the bank that evaluates this diode, and our slot in it
+    DiodeBank bank;
+    int bankSlot;
+    // matrix slots: (0,0) (1,1) (0,1) (1,0), right side 0, right side 1
+    int slots[] = new int[6];
     double vcrit;
     
     double limitStep(double vnew, double vold) {
@@ -59,6 +69,7 @@ class Diode {
 		vnew = vt *Math.log(vnew/vt);
 	    }
 	    sim.converged = false;
+	    sim.limitedSteps++;
 	    //System.out.println(vnew + " " + oo + " " + vold);
 	} else if (vnew < 0 && zoffset != 0) {
 	    // for Zener breakdown, use the same logic but translate the values
@@ -80,6 +91,7 @@ class Diode {
 		    vnew = vt *Math.log(vnew/vt);
 		}
 		sim.converged = false;
+		sim.limitedSteps++;
 	    }
 	    vnew = -(vnew+zoffset);
 	}
@@ -89,9 +101,40 @@ class Diode {
     void stamp(int n0, int n1) {
 	nodes[0] = n0;
 	nodes[1] = n1;
+	bypassValid = false;
+	setBank(sim.diodeBank);
+	slots[0] = sim.getMatrixSlot(n0, n0);
+	slots[1] = sim.getMatrixSlot(n1, n1);
+	slots[2] = sim.getMatrixSlot(n0, n1);
+	slots[3] = sim.getMatrixSlot(n1, n0);
+	slots[4] = sim.getRightSideSlot(n0);
+	slots[5] = sim.getRightSideSlot(n1);
 	sim.stampNonLinear(nodes[0]);
 	sim.stampNonLinear(nodes[1]);
     }
+
+    void setBank(DiodeBank b) {
+	bank = b;
+	bankSlot = b.add(this);
+    }
+
+    // stamp conductance geq and current source nc between the nodes
+    void stampModel(double geq, double nc) {
+	sim.stampSlot(slots[0], geq);
+	sim.stampSlot(slots[1], geq);
+	sim.stampSlot(slots[2], -geq);
+	sim.stampSlot(slots[3], -geq);
+	sim.stampRightSideSlot(slots[4], -nc);
+	sim.stampRightSideSlot(slots[5], nc);
+    }
+
+    void setModel(double voltdiff, double geq, double nc, double gmin) {
+	stampModel(geq+gmin, nc);
+	bypassValid = (gmin == 0);
+	bypassVoltdiff = voltdiff;
+	bypassGeq = geq;
+	bypassNc = nc;
+    }
     
     void doStep(double voltdiff) {
 	// used to have .1 here, but needed .01 for peak detector
@@ -100,39 +143,50 @@ class Diode {
 	voltdiff = limitStep(voltdiff, lastvoltdiff);
 	lastvoltdiff = voltdiff;
 
+	// if we have trouble converging, put a conductance in parallel with
+	// the junction, like TransistorElm does.  This pins down nodes that
+	// are only connected through reverse-biased diodes.
+	double gmin = 0;
+	if (sim.subIterations > 100) {
+	    gmin = Math.exp(-9*Math.log(10)*(1-sim.subIterations/3000.));
+	    if (gmin > .1)
+		gmin = .1;
+	}
+
+	// if the junction voltage hasn't moved since the last evaluation,
+	// reuse the old stamps instead of recomputing the exponentials
+	if (bypassValid && gmin == 0 &&
+	    Math.abs(voltdiff-bypassVoltdiff) < CirSim.bypassTolerance) {
+	    stampModel(bypassGeq, bypassNc);
+	    return;
+	}
+
 	if (voltdiff >= 0 || zvoltage == 0) {
-	    // regular diode or forward-biased zener
-	    double eval = Math.exp(voltdiff*vdcoef);
-	    // make diode linear with negative voltages; aids convergence
-	    if (voltdiff < 0)
-		eval = 1;
-	    double geq = vdcoef*leakage*eval;
-	    double nc = (eval-1)*leakage - geq*voltdiff;
-	    sim.stampConductance(nodes[0], nodes[1], geq);
-	    sim.stampCurrentSource(nodes[0], nodes[1], nc);
-	} else {
-	    // Zener diode
-	    
-	    /* 
-	     * I(Vd) = Is * (exp[Vd*C] - exp[(-Vd-Vz)*C] - 1 )
-	     *
-	     * geq is I'(Vd)
-	     * nc is I(Vd) + I'(Vd)*(-Vd)
-	     */
+	    // regular diode or forward-biased zener; evaluated along with
+	    // the other diodes in DiodeBank.evaluate()
+	    bank.queue(bankSlot, voltdiff, gmin);
+	    return;
+	}
+	// Zener diode
+	
+	/* 
+	 * I(Vd) = Is * (exp[Vd*C] - exp[(-Vd-Vz)*C] - 1 )
+	 *
+	 * geq is I'(Vd)
+	 * nc is I(Vd) + I'(Vd)*(-Vd)
+	 */
 
-	    double geq = leakage*vdcoef* ( 
-		Math.exp(voltdiff*vdcoef) + Math.exp((-voltdiff-zoffset)*vdcoef)
-		);
+	double geq = leakage*vdcoef* ( 
+	    Math.exp(voltdiff*vdcoef) + Math.exp((-voltdiff-zoffset)*vdcoef)
+	    );
 
-	    double nc = leakage* (
-		Math.exp(voltdiff*vdcoef) 
-		- Math.exp((-voltdiff-zoffset)*vdcoef) 
-		- 1
-		) + geq*(-voltdiff);
+	double nc = leakage* (
+	    Math.exp(voltdiff*vdcoef) 
+	    - Math.exp((-voltdiff-zoffset)*vdcoef) 
+	    - 1
+	    ) + geq*(-voltdiff);
 
-	    sim.stampConductance(nodes[0], nodes[1], geq);
-	    sim.stampCurrentSource(nodes[0], nodes[1],  nc);
-	}
+	setModel(voltdiff, geq, nc, gmin);
     }
     
     double calculateCurrent(double voltdiff) {
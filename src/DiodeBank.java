@@ -0,0 +1,70 @@
+    // batched evaluation of the diode model.  Each Diode registers here when
+    // it is stamped; during a subiteration doStep() only queues its junction
+    // voltage, and evaluate() then computes all the exponentials in one loop
+    // over primitive arrays before scattering the stamps into the matrix.
+    class DiodeBank {
+	Diode diodes[];
+	double vdcoef[], leakage[];
+	double voltdiff[], gmin[], geq[], nc[];
+	int pending[];
+	int count, pendingCount;
+
+	DiodeBank() {
+	    allocate(16);
+	}
+
+	void allocate(int n) {
+	    Diode nd[] = new Diode[n];
+	    int np[] = new int[n];
+	    double vc[] = new double[n], lk[] = new double[n];
+	    if (diodes != null) {
+		System.arraycopy(diodes,  0, nd, 0, count);
+		System.arraycopy(vdcoef,  0, vc, 0, count);
+		System.arraycopy(leakage, 0, lk, 0, count);
+	    }
+	    diodes = nd;
+	    vdcoef = vc;
+	    leakage = lk;
+	    pending = np;
+	    voltdiff = new double[n];
+	    gmin = new double[n];
+	    geq = new double[n];
+	    nc = new double[n];
+	}
+
+	// register a diode; returns its slot
+	int add(Diode d) {
+	    if (count == diodes.length)
+		allocate(count*2);
+	    diodes[count] = d;
+	    vdcoef[count] = d.vdcoef;
+	    leakage[count] = d.leakage;
+	    return count++;
+	}
+
+	void queue(int slot, double vd, double gm) {
+	    voltdiff[slot] = vd;
+	    gmin[slot] = gm;
+	    pending[pendingCount++] = slot;
+	}
+
+	// evaluate all queued diodes (regular diode or forward-biased zener)
+	void evaluate() {
+	    int i;
+	    for (i = 0; i != pendingCount; i++) {
+		int k = pending[i];
+		double v = voltdiff[k];
+		double eval = Math.exp(v*vdcoef[k]);
+		// make diode linear with negative voltages; aids convergence
+		if (v < 0)
+		    eval = 1;
+		geq[k] = vdcoef[k]*leakage[k]*eval;
+		nc[k] = (eval-1)*leakage[k] - geq[k]*v;
+	    }
+	    for (i = 0; i != pendingCount; i++) {
+		int k = pending[i];
+		diodes[k].setModel(voltdiff[k], geq[k], nc[k], gmin[k]);
+	    }
+	    pendingCount = 0;
+	}
+    }
@@ -0,0 +1,107 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+    // full-resolution history of a scope probe, kept off the Java heap in
+    // a memory-mapped temporary file, so hours of simulation don't grow
+    // the heap or make the GC scan it.  Each record is the time followed
+    // by one double per channel.  The file is mapped a chunk at a time as
+    // records are added; once maxBytes is reached the oldest chunk is
+    // reused, so the buffer keeps the most recent history.
+    //
+    // Records are added on the simulation thread.  A reader on another
+    // thread (saving the history, say) sees consistent records except
+    // for ones that are overwritten while it reads them.
+    class HistoryBuffer {
+	static final int chunkRecords = 1<<16;
+	static final long defaultMaxBytes = 4L<<30;
+
+	int channels;
+	int recordSize;
+	File file;
+	RandomAccessFile raf;
+	FileChannel channel;
+	// ring of mapped chunks; record i is in chunk (i/chunkRecords) %
+	// chunks.length
+	ByteBuffer chunks[];
+	// records [start, count) are available
+	long start, count;
+
+	HistoryBuffer(int channels) throws IOException {
+	    this(channels, defaultMaxBytes);
+	}
+
+	HistoryBuffer(int ch, long maxBytes) throws IOException {
+	    channels = ch;
+	    recordSize = 8*(channels+1);
+	    long chunkBytes = (long) chunkRecords*recordSize;
+	    chunks = new ByteBuffer[(int) Math.max(2, maxBytes/chunkBytes)];
+	    file = File.createTempFile("history", ".bin");
+	    file.deleteOnExit();
+	    raf = new RandomAccessFile(file, "rw");
+	    channel = raf.getChannel();
+	}
+
+	// add a record.  Returns false if the file couldn't be extended
+	// (the disk is full, say), in which case the record is dropped.
+	boolean add(double t, double v[]) {
+	    long c = count/chunkRecords;
+	    int slot = (int) (c % chunks.length);
+	    int off = (int) (count % chunkRecords)*recordSize;
+	    if (off == 0) {
+		if (chunks[slot] == null) {
+		    try {
+			chunks[slot] = channel.map(FileChannel.MapMode.READ_WRITE,
+						   (long) slot*chunkRecords*recordSize,
+						   (long) chunkRecords*recordSize);
+		    } catch (IOException e) {
+			return false;
+		    }
+		}
+		// reusing the oldest chunk
+		if (c >= chunks.length)
+		    start = (c-chunks.length+1)*chunkRecords;
+	    }
+	    ByteBuffer b = chunks[slot];
+	    b.putDouble(off, t);
+	    int i;
+	    for (i = 0; i != channels; i++)
+		b.putDouble(off+8*(i+1), v[i]);
+	    count++;
+	    return true;
+	}
+
+	long getStart() { return start; }
+	long getCount() { return count; }
+
+	ByteBuffer chunkOf(long i) {
+	    return chunks[(int) ((i/chunkRecords) % chunks.length)];
+	}
+
+	double getTime(long i) {
+	    return chunkOf(i).getDouble((int) (i % chunkRecords)*recordSize);
+	}
+
+	double getValue(long i, int ch) {
+	    return chunkOf(i).getDouble((int) (i % chunkRecords)*recordSize+8*(ch+1));
+	}
+
+	void clear() {
+	    start = count = 0;
+	}
+
+	// release the mapping and delete the file.  The mapped memory itself
+	// goes when the buffers are collected.
+	void close() {
+	    chunks = new ByteBuffer[chunks.length];
+	    start = count = 0;
+	    try {
+		channel.close();
+		raf.close();
+	    } catch (IOException e) {
+	    }
+	    file.delete();
+	}
+    }
@@ -0,0 +1,391 @@
+    // ILU(0)-preconditioned BiCGSTAB solver, for large sparse circuit
+    // matrices (resistor meshes, power grids) where dense LU is O(n^3) to
+    // factor and O(n^2) to solve.  factor() takes the nonzeros of the
+    // matrix and builds an incomplete LU with the same sparsity; solve()
+    // then iterates from the last solution, which for a circuit that is
+    // stepping smoothly is already close.  Either returns false when the
+    // method doesn't work for the matrix, and the caller falls back to
+    // lu_factor()/lu_solve().
+    //
+    // A linear circuit's matrix is stamped straight into a SparseMatrix
+    // and factored from that, so it never exists as n*n doubles unless we
+    // fall back to LU.  A nonlinear circuit's matrix is restamped densely
+    // every subiteration, and factor() scans all of it.
+    class IterativeSolver {
+	int n;
+	// the matrix, rows reordered so each has a nonzero on the diagonal,
+	// in compressed row form; rowPerm[i] is the matrix row in row i
+	int rowStart[], colIndex[], diag[], rowPerm[];
+	double values[];
+	// incomplete LU factors, in the same layout (L has a unit diagonal)
+	double ilu[];
+	// last solution, used as the starting guess
+	double x[];
+	double bp[], xs[], r[], rhat[], p[], v[], s[], t[], y[], z[];
+	boolean factored;
+
+	// matrices smaller than this are left to dense LU
+	static final int minSize = 200;
+	static final int maxIterations = 1000;
+	// required residual, relative to the right side
+	static final double tolerance = 1e-12;
+
+	IterativeSolver(int size) {
+	    n = size;
+	    rowPerm = new int[n];
+	    diag = new int[n];
+	    rowStart = new int[n+1];
+	    x = new double[n];
+	    xs = new double[n];
+	    bp = new double[n];
+	    r = new double[n];
+	    rhat = new double[n];
+	    p = new double[n];
+	    v = new double[n];
+	    s = new double[n];
+	    t = new double[n];
+	    y = new double[n];
+	    z = new double[n];
+	}
+
+	// take the nonzeros of a and compute the incomplete factorization,
+	// unless a is the same as last time.  Returns false if no ordering
+	// of the rows gives a nonzero diagonal, or a pivot vanishes.
+	boolean factor(double a[][]) {
+	    int i, j;
+	    int nz = 0;
+	    for (i = 0; i != n; i++)
+		for (j = 0; j != n; j++)
+		    if (a[i][j] != 0)
+			nz++;
+	    if (factored && nz == values.length && same(a))
+		return true;
+	    SparseMatrix m = new SparseMatrix(n);
+	    for (i = 0; i != n; i++)
+		for (j = 0; j != n; j++)
+		    if (a[i][j] != 0)
+			m.add(i, j, a[i][j]);
+	    return factor(m);
+	}
+
+	// the same for a matrix assembled in sparse form, which must be
+	// compacted
+	boolean factor(SparseMatrix m) {
+	    int i, k, q;
+	    factored = false;
+	    if (!orderRows(m))
+		return false;
+	    int nz = m.countNonzeros();
+	    colIndex = new int[nz];
+	    values = new double[nz];
+	    ilu = new double[nz];
+	    k = 0;
+	    for (i = 0; i != n; i++) {
+		int row = rowPerm[i];
+		rowStart[i] = k;
+		diag[i] = -1;
+		for (q = 0; q != m.len[row]; q++) {
+		    int j = m.cols[row][q];
+		    if (j == i)
+			diag[i] = k;
+		    colIndex[k] = j;
+		    values[k++] = m.vals[row][q];
+		}
+	    }
+	    rowStart[n] = k;
+	    if (!factorILU())
+		return false;
+	    factored = true;
+	    return true;
+	}
+
+	// true if a has the same nonzeros as the last factored matrix
+	boolean same(double a[][]) {
+	    int i, k;
+	    for (i = 0; i != n; i++) {
+		double row[] = a[rowPerm[i]];
+		for (k = rowStart[i]; k != rowStart[i+1]; k++)
+		    if (row[colIndex[k]] != values[k])
+			return false;
+	    }
+	    return true;
+	}
+
+	// match each column with a row that has a nonzero in it, so the
+	// voltage source rows (zero on the diagonal) move to a node's column.
+	// A row starts on the column of its largest entry, which for a node
+	// is its own conductance; simplifying the matrix drops different
+	// rows and columns, so that is often not the diagonal.  For each column
+	// still without a row, we look for an augmenting path: a row in the
+	// column is taken if it is free, otherwise its column is moved to
+	// another of its rows in the same way, depth first.  The search
+	// keeps its own stack, since a path can be as long as the matrix.
+	boolean orderRows(SparseMatrix m) {
+	    int i, j, k;
+	    // the rows of each column, in increasing order
+	    int colStart[] = new int[n+1];
+	    for (i = 0; i != n; i++)
+		for (k = 0; k != m.len[i]; k++)
+		    colStart[m.cols[i][k]+1]++;
+	    for (j = 0; j != n; j++)
+		colStart[j+1] += colStart[j];
+	    int rowIndex[] = new int[colStart[n]];
+	    int fill[] = new int[n];
+	    for (i = 0; i != n; i++)
+		for (k = 0; k != m.len[i]; k++) {
+		    j = m.cols[i][k];
+		    rowIndex[colStart[j]+fill[j]++] = i;
+		}
+
+	    int rowCol[] = new int[n];
+	    for (j = 0; j != n; j++)
+		rowPerm[j] = -1;
+	    for (i = 0; i != n; i++) {
+		rowCol[i] = -1;
+		int best = -1;
+		double bv = 0;
+		for (k = 0; k != m.len[i]; k++) {
+		    double v = Math.abs(m.vals[i][k]);
+		    // ties go to the diagonal
+		    if (v > bv || (v == bv && m.cols[i][k] == i)) {
+			bv = v;
+			best = m.cols[i][k];
+		    }
+		}
+		if (best >= 0 && rowPerm[best] < 0) {
+		    rowPerm[best] = i;
+		    rowCol[i] = best;
+		}
+	    }
+	    int visited[] = new int[n];
+	    // for each level of the search, its column, the next of the
+	    // column's rows to try, and the row that was tried
+	    int stackCol[] = new int[n];
+	    int stackPos[] = new int[n];
+	    int stackRow[] = new int[n];
+	    for (j = 0; j != n; j++) {
+		if (rowPerm[j] >= 0)
+		    continue;
+		int mark = j+1;
+		int top = 0;
+		stackCol[0] = j;
+		stackPos[0] = -1;
+		int free = -1;
+		while (top >= 0) {
+		    int col = stackCol[top];
+		    if (stackPos[top] < 0) {
+			// first visit: take a free row if there is one
+			for (k = colStart[col]; k != colStart[col+1]; k++)
+			    if (rowCol[rowIndex[k]] < 0)
+				break;
+			if (k != colStart[col+1]) {
+			    free = rowIndex[k];
+			    break;
+			}
+			stackPos[top] = colStart[col];
+		    }
+		    for (k = stackPos[top]; k != colStart[col+1]; k++)
+			if (visited[rowIndex[k]] != mark)
+			    break;
+		    if (k == colStart[col+1]) {
+			top--;
+			continue;
+		    }
+		    i = rowIndex[k];
+		    visited[i] = mark;
+		    stackPos[top] = k+1;
+		    stackRow[top] = i;
+		    top++;
+		    stackCol[top] = rowCol[i];
+		    stackPos[top] = -1;
+		}
+		if (free < 0)
+		    return false;
+		// move each column on the path to the row found for it
+		stackRow[top] = free;
+		for (; top >= 0; top--) {
+		    rowCol[stackRow[top]] = stackCol[top];
+		    rowPerm[stackCol[top]] = stackRow[top];
+		}
+	    }
+	    return true;
+	}
+
+	boolean factorILU() {
+	    int i, j, k, m;
+	    int pos[] = new int[n];
+	    for (j = 0; j != n; j++)
+		pos[j] = -1;
+	    System.arraycopy(values, 0, ilu, 0, values.length);
+	    for (i = 0; i != n; i++) {
+		int rs = rowStart[i], re = rowStart[i+1];
+		for (k = rs; k != re; k++)
+		    pos[colIndex[k]] = k;
+		for (k = rs; k != re; k++) {
+		    int c = colIndex[k];
+		    if (c >= i)
+			break;
+		    // eliminate with row c, keeping only our own nonzeros
+		    double f = ilu[k] /= ilu[diag[c]];
+		    for (m = diag[c]+1; m != rowStart[c+1]; m++) {
+			int pj = pos[colIndex[m]];
+			if (pj >= 0)
+			    ilu[pj] -= f*ilu[m];
+		    }
+		}
+		for (k = rs; k != re; k++)
+		    pos[colIndex[k]] = -1;
+		if (diag[i] < 0 || ilu[diag[i]] == 0 || Double.isNaN(ilu[diag[i]]))
+		    return false;
+	    }
+	    return true;
+	}
+
+	// y = A x, with A in row order rowPerm
+	void multiply(double xv[], double yv[]) {
+	    int i, k;
+	    for (i = 0; i != n; i++) {
+		double sum = 0;
+		for (k = rowStart[i]; k != rowStart[i+1]; k++)
+		    sum += values[k]*xv[colIndex[k]];
+		yv[i] = sum;
+	    }
+	}
+
+	// solve LU yv = b with the incomplete factors
+	void precondition(double b[], double yv[]) {
+	    int i, k;
+	    for (i = 0; i != n; i++) {
+		double sum = b[i];
+		for (k = rowStart[i]; k != diag[i]; k++)
+		    sum -= ilu[k]*yv[colIndex[k]];
+		yv[i] = sum;
+	    }
+	    for (i = n-1; i >= 0; i--) {
+		double sum = yv[i];
+		for (k = diag[i]+1; k != rowStart[i+1]; k++)
+		    sum -= ilu[k]*yv[colIndex[k]];
+		yv[i] = sum/ilu[diag[i]];
+	    }
+	}
+
+	static double dot(double a[], double b[], int n) {
+	    double sum = 0;
+	    int i;
+	    for (i = 0; i != n; i++)
+		sum += a[i]*b[i];
+	    return sum;
+	}
+
+	// true if xs solves the system to within tolerance in every row,
+	// relative to the size of the terms in that row (so a row whose
+	// currents are all tiny is held to a tiny error too, as LU would).
+	// Leaves the residual in r.
+	boolean accurate() {
+	    int i, k;
+	    boolean ok = true;
+	    for (i = 0; i != n; i++) {
+		double sum = bp[i], scale = Math.abs(bp[i]);
+		for (k = rowStart[i]; k != rowStart[i+1]; k++) {
+		    double q = values[k]*xs[colIndex[k]];
+		    sum -= q;
+		    scale += Math.abs(q);
+		}
+		r[i] = sum;
+		if (Math.abs(sum) > tolerance*scale)
+		    ok = false;
+	    }
+	    return ok;
+	}
+
+	// solve with b (indexed by row) as the right side, leaving the
+	// solution (indexed by column) in b.  Returns false, leaving b
+	// alone, if the iteration doesn't converge.
+	boolean solve(double b[]) {
+	    int i, iter;
+	    // the rows are reordered, so reorder the right side the same way
+	    double bnorm = 0;
+	    for (i = 0; i != n; i++) {
+		bp[i] = b[rowPerm[i]];
+		bnorm += bp[i]*bp[i];
+	    }
+	    if (bnorm == 0) {
+		for (i = 0; i != n; i++)
+		    b[i] = x[i] = 0;
+		return true;
+	    }
+	    // work on a copy, so a failed solve leaves the warm start alone
+	    System.arraycopy(x, 0, xs, 0, n);
+	    double limit = tolerance*tolerance*bnorm;
+	    double rho = 1, alpha = 1, omega = 1;
+	    boolean ok = false;
+	    // start (and restart) from the true residual
+	    boolean restart = true;
+	    accurate();
+	    for (iter = 0; iter != maxIterations; iter++) {
+		double rr = dot(r, r, n);
+		if (rr <= limit) {
+		    if (accurate()) {
+			ok = true;
+			break;
+		    }
+		    // the recurrence drifted from the true residual, or some
+		    // rows are much smaller than the rest; keep going from
+		    // the true residual
+		    rr = dot(r, r, n);
+		    limit = rr*1e-4;
+		    restart = true;
+		}
+		double rho1 = dot(rhat, r, n);
+		// also restart if r has become orthogonal to the shadow
+		// residual (this happens quickly when the right side is just
+		// a source row)
+		if (restart || rho1*rho1 <= 1e-28*rr*dot(rhat, rhat, n) || omega == 0) {
+		    for (i = 0; i != n; i++) {
+			rhat[i] = r[i];
+			p[i] = v[i] = 0;
+		    }
+		    rho = alpha = omega = 1;
+		    rho1 = rr;
+		    restart = false;
+		}
+		double beta = (rho1/rho)*(alpha/omega);
+		for (i = 0; i != n; i++)
+		    p[i] = r[i] + beta*(p[i]-omega*v[i]);
+		precondition(p, y);
+		multiply(y, v);
+		double rv = dot(rhat, v, n);
+		if (rv == 0)
+		    break;
+		alpha = rho1/rv;
+		for (i = 0; i != n; i++) {
+		    s[i] = r[i]-alpha*v[i];
+		    xs[i] += alpha*y[i];
+		}
+		if (dot(s, s, n) <= limit) {
+		    // check it at the top of the loop
+		    System.arraycopy(s, 0, r, 0, n);
+		    continue;
+		}
+		precondition(s, z);
+		multiply(z, t);
+		double tt = dot(t, t, n);
+		if (tt == 0)
+		    break;
+		omega = dot(t, s, n)/tt;
+		for (i = 0; i != n; i++) {
+		    xs[i] += omega*z[i];
+		    r[i] = s[i]-omega*t[i];
+		}
+		rho = rho1;
+	    }
+	    if (!ok)
+		return false;
+	    for (i = 0; i != n; i++)
+		if (Double.isNaN(xs[i]))
+		    return false;
+	    System.arraycopy(xs, 0, x, 0, n);
+	    System.arraycopy(xs, 0, b, 0, n);
+	    return true;
+	}
+    }
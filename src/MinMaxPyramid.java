@@ -0,0 +1,145 @@
+    // min and max of each channel of a HistoryBuffer over blocks of 4,
+    // 16, 64, ... records, so the range of any stretch of history comes
+    // from a few blocks per level instead of from every record.  A scope
+    // redrawn at a new time scale then costs about its width times the
+    // number of levels, however much history there is.  Each level is a
+    // HistoryBuffer of its own (block start time, then the minimum and
+    // maximum of each channel), created when its first block is done.
+    class MinMaxPyramid {
+	static final int factor = 4;
+	static final int maxLevels = 15;
+
+	HistoryBuffer raw;
+	int channels;
+	HistoryBuffer levels[];
+	// levels below this are complete; a level whose file couldn't be
+	// extended, and the ones above it, are no longer used
+	int usable;
+	// the block being built at each level
+	double accMin[][], accMax[][], accTime[];
+	int accCount[];
+	// scratch record of minimums then maximums
+	double rec[];
+
+	MinMaxPyramid(HistoryBuffer raw) {
+	    this.raw = raw;
+	    channels = raw.channels;
+	    levels = new HistoryBuffer[maxLevels];
+	    usable = maxLevels;
+	    accMin = new double[maxLevels][channels];
+	    accMax = new double[maxLevels][channels];
+	    accTime = new double[maxLevels];
+	    accCount = new int[maxLevels];
+	    rec = new double[channels*2];
+	}
+
+	// add the record just added to raw
+	void add(double t, double v[]) {
+	    fold(0, t, v, v);
+	}
+
+	void fold(int l, double t, double mn[], double mx[]) {
+	    int i;
+	    double amin[] = accMin[l], amax[] = accMax[l];
+	    if (accCount[l] == 0) {
+		accTime[l] = t;
+		for (i = 0; i != channels; i++) {
+		    amin[i] = mn[i];
+		    amax[i] = mx[i];
+		}
+	    } else {
+		for (i = 0; i != channels; i++) {
+		    if (mn[i] < amin[i])
+			amin[i] = mn[i];
+		    if (mx[i] > amax[i])
+			amax[i] = mx[i];
+		}
+	    }
+	    if (++accCount[l] < factor)
+		return;
+	    accCount[l] = 0;
+	    if (l >= usable)
+		return;
+	    if (levels[l] == null) {
+		// enough space to cover about as much as raw does
+		long bytes = (raw.chunks.length+1L)*HistoryBuffer.chunkRecords*
+		    8*(2*channels+1)/blockSize(l);
+		try {
+		    levels[l] = new HistoryBuffer(2*channels, bytes);
+		} catch (java.io.IOException e) {
+		    usable = l;
+		    return;
+		}
+	    }
+	    for (i = 0; i != channels; i++) {
+		rec[i] = amin[i];
+		rec[channels+i] = amax[i];
+	    }
+	    if (!levels[l].add(accTime[l], rec)) {
+		usable = l;
+		return;
+	    }
+	    if (l+1 < maxLevels)
+		fold(l+1, accTime[l], amin, amax);
+	}
+
+	// records in a block at level l
+	static long blockSize(int l) {
+	    return 1L << (2*(l+1));
+	}
+
+	// min and max of each channel over records [r0, r1).  Returns false
+	// if some of those records are no longer kept.
+	boolean getMinMax(long r0, long r1, double mn[], double mx[]) {
+	    int i;
+	    if (r0 < raw.getStart() || r1 > raw.getCount() || r0 >= r1)
+		return false;
+	    for (i = 0; i != channels; i++) {
+		mn[i] = Double.POSITIVE_INFINITY;
+		mx[i] = Double.NEGATIVE_INFINITY;
+	    }
+	    while (r0 < r1) {
+		// take the biggest finished block that starts at r0 and
+		// doesn't go past r1
+		int l;
+		long size = 1;
+		for (l = 0; l < usable; l++) {
+		    long s = size*factor;
+		    HistoryBuffer lb = levels[l];
+		    if (r0 % s != 0 || r0+s > r1 || lb == null ||
+			r0/s < lb.getStart() || r0/s >= lb.getCount())
+			break;
+		    size = s;
+		}
+		if (l == 0) {
+		    for (i = 0; i != channels; i++) {
+			double x = raw.getValue(r0, i);
+			if (x < mn[i])
+			    mn[i] = x;
+			if (x > mx[i])
+			    mx[i] = x;
+		    }
+		} else {
+		    HistoryBuffer lb = levels[l-1];
+		    long b = r0/size;
+		    for (i = 0; i != channels; i++) {
+			double x = lb.getValue(b, i);
+			if (x < mn[i])
+			    mn[i] = x;
+			x = lb.getValue(b, channels+i);
+			if (x > mx[i])
+			    mx[i] = x;
+		    }
+		}
+		r0 += size;
+	    }
+	    return true;
+	}
+
+	void close() {
+	    int l;
+	    for (l = 0; l != maxLevels; l++)
+		if (levels[l] != null)
+		    levels[l].close();
+	}
+    }
@@ -694,6 +694,7 @@ class Oscilloscope extends JFrame implements
 			y_value = null;
 			y_tvalue = null;
 		}
+		wf.setRecording(false);
 		remove(wf.label);
 		waveforms.remove(wf);
 		validate();
@@ -1087,6 +1088,8 @@ class Oscilloscope extends JFrame implements
 		if ( this == sim.selected_scope )
 			sim.selected_scope = null;
 		sim.scopes.remove(this);
+		for ( Iterator<OscilloscopeWaveform> wfi = waveforms.iterator(); wfi.hasNext(); )
+			wfi.next().setRecording(false);
 		dispose();
 	}
 	@Override public void componentMoved(ComponentEvent e) {}
@@ -1,6 +1,10 @@
 import java.awt.*;
 import java.awt.event.*;
 import java.awt.image.*;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.Random;
 import javax.swing.*;
@@ -25,6 +29,15 @@ class OscilloscopeWaveform implements MouseListener, ActionListener {
 	private double[][] min_values;
 	private double[][] max_values;
 	
+	// every step's values, while Record History is on, and their min/max
+	// over longer spans for redrawing at another time scale
+	private HistoryBuffer history;
+	private MinMaxPyramid pyramid;
+	// history being written to a file by saveHistory(), which closes it
+	// when done if recording was stopped in the meantime
+	private HistoryBuffer saving;
+	private JCheckBoxMenuItem record_history;
+	
 	JLabel label;
 	private JPopupMenu menu;
 	private JPopupMenu[] type_menus;
@@ -188,6 +201,32 @@ class OscilloscopeWaveform implements MouseListener, ActionListener {
 		setLastColumn();
 		counter = 0;
 		redraw_needed = true;
+		
+		if ( pyramid != null )
+			fillFromHistory();
+	}
+	
+	// Fill in the columns behind the current one from the recorded history, so changing
+	// the time scale or size redraws what was there instead of starting over.  Each column
+	// takes a few blocks from each level of the pyramid, however many steps it covers.
+	private void fillFromHistory() {
+		long end = history.getCount();
+		int steps = scope.getTimeScale();
+		double[] mn = new double[value.length];
+		double[] mx = new double[value.length];
+		int k;
+		for ( k = 1; k < size.width; k++ ) {
+			long r0 = end - (long) k * steps;
+			if ( !pyramid.getMinMax(r0, r0 + steps, mn, mx) )
+				break;
+			int col = mod(last_column - k, size.width);
+			for ( int n = 0; n < value.length; n++ ) {
+				min_values[n][col] = mn[n];
+				max_values[n][col] = mx[n];
+			}
+		}
+		// the current column and the k-1 filled behind it
+		columns_visible = Math.min(k + 1, size.width);
 	}
 	
 	/* ******************************************************************************************
@@ -224,6 +263,20 @@ class OscilloscopeWaveform implements MouseListener, ActionListener {
 			}
 		}
 		
+		if ( history != null ) {
+			if ( history.add(scope.sim.t, value) )
+				pyramid.add(scope.sim.t, value);
+			else {
+				// don't hold up the rest of this timestep with the dialog
+				setRecording(false);
+				SwingUtilities.invokeLater(new Runnable() {
+					public void run() {
+						JOptionPane.showMessageDialog(scope, "History file is full; recording stopped.");
+					}
+				});
+			}
+		}
+		
 		if ( scope.getType() == Oscilloscope.ScopeType.I_VS_V ) {
 			
 			int current_x, current_y;
@@ -326,6 +379,127 @@ class OscilloscopeWaveform implements MouseListener, ActionListener {
 		redraw_needed = false;
 	}
 	
+	/* ******************************************************************************************
+	 * * History recording                                                                      *
+	 * ******************************************************************************************/
+	
+	public void setRecording(boolean on) {
+		if ( on && history == null ) {
+			try {
+				history = new HistoryBuffer(value.length);
+				pyramid = new MinMaxPyramid(history);
+			} catch (IOException e) {
+				JOptionPane.showMessageDialog(scope, "Can't create history file: " + e.getMessage());
+				on = false;
+			}
+		} else if ( !on && history != null ) {
+			pyramid.close();
+			pyramid = null;
+			synchronized (this) {
+				if ( history != saving )
+					history.close();
+				history = null;
+			}
+		}
+		record_history.setState(on);
+	}
+	
+	// called by the save thread when it's done with h
+	private synchronized void saveDone(HistoryBuffer h) {
+		saving = null;
+		if ( h != history )
+			h.close();
+	}
+	
+	public HistoryBuffer getHistory() {
+		return history;
+	}
+	
+	private String[] getValueNames() {
+		if ( elm instanceof TransistorElm ) {
+			Oscilloscope.TransistorValue[] v = Oscilloscope.TransistorValue.values();
+			String[] names = new String[v.length];
+			for ( int i = 0; i < v.length; i++ )
+				names[i] = v[i].name();
+			return names;
+		}
+		Oscilloscope.Value[] v = Oscilloscope.Value.values();
+		String[] names = new String[v.length];
+		for ( int i = 0; i < v.length; i++ )
+			names[i] = v[i].name();
+		return names;
+	}
+	
+	// write the recorded history as CSV, one line per timestep
+	private void saveHistory() {
+		if ( history == null || history.getCount() == history.getStart() ) {
+			JOptionPane.showMessageDialog(scope, "No history recorded.");
+			return;
+		}
+		if ( saving != null ) {
+			JOptionPane.showMessageDialog(scope, "The history is already being saved.");
+			return;
+		}
+		JFileChooser chooser = new JFileChooser();
+		if ( chooser.showSaveDialog(scope) != JFileChooser.APPROVE_OPTION )
+			return;
+		final File f = chooser.getSelectedFile();
+		final HistoryBuffer h;
+		synchronized (this) {
+			// recording may have stopped while the chooser was up
+			h = history;
+			if ( h == null )
+				return;
+			saving = h;
+		}
+		final String[] names = getValueNames();
+		// the simulation may still be adding records, so stop at the
+		// ones that are there now
+		final long start = h.getStart(), end = h.getCount();
+		// the file can be gigabytes, so write it off the event thread
+		Thread t = new Thread("history save") {
+			public void run() {
+				String error = null;
+				try {
+					writeHistory(h, f, names, start, end);
+				} catch (IOException e) {
+					error = "Can't save history: " + e.getMessage();
+				} finally {
+					saveDone(h);
+				}
+				if ( error != null ) {
+					final String msg = error;
+					SwingUtilities.invokeLater(new Runnable() {
+						public void run() {
+							JOptionPane.showMessageDialog(scope, msg);
+						}
+					});
+				}
+			}
+		};
+		t.setDaemon(true);
+		t.start();
+	}
+	
+	private static void writeHistory(HistoryBuffer h, File f, String[] names,
+	                                 long start, long end) throws IOException {
+		BufferedWriter out = new BufferedWriter(new FileWriter(f));
+		try {
+			out.write("t");
+			for ( int i = 0; i < names.length; i++ )
+				out.write("," + names[i]);
+			out.newLine();
+			for ( long r = start; r < end; r++ ) {
+				out.write(Double.toString(h.getTime(r)));
+				for ( int i = 0; i < names.length; i++ )
+					out.write("," + h.getValue(r, i));
+				out.newLine();
+			}
+		} finally {
+			out.close();
+		}
+	}
+	
 	public Point drawPosition() {
 		return last_draw_point;
 	}
@@ -640,6 +814,16 @@ class OscilloscopeWaveform implements MouseListener, ActionListener {
 		}
 		menu.addSeparator();
 		
+		// Record every step's values for later inspection
+		menu.add(record_history = new JCheckBoxMenuItem("Record History"));
+		record_history.setActionCommand("RECORD_HISTORY");
+		record_history.addActionListener(this);
+		JMenuItem saveItem = new JMenuItem("Save History...");
+		saveItem.setActionCommand("SAVE_HISTORY");
+		saveItem.addActionListener(this);
+		menu.add(saveItem);
+		menu.addSeparator();
+		
 		// Remove element from scope
 		JMenuItem removeItem = new JMenuItem("Remove from Scope");
 		removeItem.addActionListener(this);
@@ -755,6 +939,12 @@ class OscilloscopeWaveform implements MouseListener, ActionListener {
 		if ( e.getActionCommand().equals("REMOVE") )
 			scope.removeElement(this);
 		
+		else if ( e.getActionCommand().equals("RECORD_HISTORY") )
+			setRecording(record_history.getState());
+		
+		else if ( e.getActionCommand().equals("SAVE_HISTORY") )
+			saveHistory();
+		
 		else if ( e.getActionCommand().substring(0, 9).equals("SET_COLOR") ) {
 			switch (type) {
 			case VIP_VS_T:
@@ -0,0 +1,104 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+    // a piecewise-linear waveform read from a file of (time, value)
+    // pairs, each two big-endian doubles as DataOutputStream.writeDouble()
+    // writes them, in increasing time.  The file is memory-mapped, so a
+    // recording with millions of points is paged in by the OS as the
+    // simulation reaches it instead of being read onto the heap.
+    class SampleFile {
+	// the file is mapped in pieces of this many points, since a single
+	// mapping is limited to 2GB
+	static final int chunkPoints = 1<<26;
+
+	String name;
+	long count;
+	MappedByteBuffer chunks[];
+	// point interpolated from last time, so stepping forward through
+	// the file only looks at the next few points
+	long cursor;
+
+	SampleFile(String fn) throws IOException {
+	    name = fn;
+	    RandomAccessFile raf = new RandomAccessFile(new File(fn), "r");
+	    try {
+		FileChannel ch = raf.getChannel();
+		count = ch.size()/16;
+		if (count < 1)
+		    throw new IOException("no samples in " + fn);
+		int n = (int) ((count+chunkPoints-1)/chunkPoints);
+		chunks = new MappedByteBuffer[n];
+		int i;
+		for (i = 0; i != n; i++) {
+		    long start = (long) i*chunkPoints;
+		    long len = Math.min(count-start, chunkPoints);
+		    chunks[i] = ch.map(FileChannel.MapMode.READ_ONLY,
+				       start*16, len*16);
+		}
+	    } finally {
+		// the mappings stay valid after the file is closed
+		raf.close();
+	    }
+	}
+
+	double getTime(long i) {
+	    ByteBuffer b = chunks[(int) (i/chunkPoints)];
+	    return b.getDouble((int) (i%chunkPoints)*16);
+	}
+
+	double getValue(long i) {
+	    ByteBuffer b = chunks[(int) (i/chunkPoints)];
+	    return b.getDouble((int) (i%chunkPoints)*16+8);
+	}
+
+	double getStartTime() { return getTime(0); }
+	double getEndTime() { return getTime(count-1); }
+
+	// value at time t, interpolated between the points around it, or
+	// the first or last value if t is outside the file
+	double getValue(double t) {
+	    if (t <= getTime(0)) {
+		cursor = 0;
+		return getValue(0);
+	    }
+	    if (t >= getTime(count-1)) {
+		cursor = count-1;
+		return getValue(count-1);
+	    }
+	    // t is after point cursor; walk forward a few points, then
+	    // give up and search
+	    long i = cursor;
+	    if (getTime(i) > t)
+		i = find(t);
+	    else {
+		int k;
+		for (k = 0; k != 8 && getTime(i+1) <= t; k++)
+		    i++;
+		if (k == 8)
+		    i = find(t);
+	    }
+	    cursor = i;
+	    double t0 = getTime(i), t1 = getTime(i+1);
+	    double v0 = getValue(i);
+	    if (t1 <= t0)
+		return v0;
+	    return v0+(getValue(i+1)-v0)*(t-t0)/(t1-t0);
+	}
+
+	// last point at or before t, which is inside the file
+	long find(double t) {
+	    long lo = 0, hi = count-1;
+	    while (hi-lo > 1) {
+		long mid = (lo+hi) >>> 1;
+		if (getTime(mid) <= t)
+		    lo = mid;
+		else
+		    hi = mid;
+	    }
+	    return lo;
+	}
+    }
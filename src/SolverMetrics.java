@@ -0,0 +1,183 @@
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.Vector;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+    // solver counters and timings, for watching a long-running simulation
+    // over JMX or from a SolverMetricsListener.  CirSim updates them from
+    // the simulation thread; JMX reads them unsynchronized, so a value read
+    // in the middle of a step may be a step out of date.
+    class SolverMetrics implements SolverMetricsMXBean {
+	static final String objectName = "CircuitSimulator:type=SolverMetrics";
+	static final int histogramSize = 15;
+	// length of a sampling interval in ns
+	static final long sampleTime = 1000000000L;
+
+	long steps, subIterations;
+	long histogram[] = new long[histogramSize];
+	long factorizations, factorTime, solves, solveTime;
+	// times the iterative solver gave up and LU was used instead
+	long iterativeFallbacks;
+	// doStep() time and calls of each element class, as {ns, calls}
+	HashMap<Class<?>, long[]> classTimes = new HashMap<Class<?>, long[]>();
+	boolean profileElements;
+
+	int matrixSize, matrixNonzeros, fillIn = -1;
+	long analysisTime;
+
+	// start of the current sampling interval, and the rates over the
+	// last one
+	long sampleStart, sampleSteps;
+	double sampleSimTime;
+	double stepsPerSecond, simTimePerSecond;
+
+	Vector<SolverMetricsListener> listeners = new Vector<SolverMetricsListener>();
+
+	// make the metrics visible over JMX, replacing those of an earlier
+	// simulator in this JVM
+	void register() {
+	    try {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName(objectName);
+		if (server.isRegistered(name))
+		    server.unregisterMBean(name);
+		server.registerMBean(this, name);
+	    } catch (Exception e) {
+		e.printStackTrace();
+	    }
+	}
+
+	void addListener(SolverMetricsListener l) {
+	    listeners.addElement(l);
+	}
+
+	void removeListener(SolverMetricsListener l) {
+	    listeners.removeElement(l);
+	}
+
+	void analyzed(long ns, int size, int nonzeros) {
+	    analysisTime = ns;
+	    matrixSize = size;
+	    matrixNonzeros = nonzeros;
+	    fillIn = -1;
+	}
+
+	// record the fill-in of a factorization, given the nonzeros in the
+	// matrix and in its factors
+	void setFill(int nonzeros, int factorNonzeros) {
+	    fillIn = factorNonzeros-nonzeros;
+	}
+
+	void factored(long ns) {
+	    factorizations++;
+	    factorTime += ns;
+	}
+
+	void iterativeFailed() {
+	    iterativeFallbacks++;
+	}
+
+	void solved(long ns) {
+	    solves++;
+	    solveTime += ns;
+	}
+
+	void step(int subiter) {
+	    steps++;
+	    subIterations += subiter;
+	    int b = 32-Integer.numberOfLeadingZeros(subiter);
+	    histogram[(b < histogramSize) ? b : histogramSize-1]++;
+	}
+
+	// timer of an element class, which StepKernel adds doStep() time to
+	long[] getClassTimer(Class<?> c) {
+	    synchronized (classTimes) {
+		long t[] = classTimes.get(c);
+		if (t == null)
+		    classTimes.put(c, t = new long[2]);
+		return t;
+	    }
+	}
+
+	// called after each batch of timesteps; closes the sampling interval
+	// once it is long enough
+	void sample(double simTime) {
+	    long now = System.nanoTime();
+	    if (sampleStart == 0 || simTime < sampleSimTime) {
+		// first sample, or the circuit was reset
+		sampleStart = now;
+		sampleSteps = steps;
+		sampleSimTime = simTime;
+		return;
+	    }
+	    long dt = now-sampleStart;
+	    if (dt < sampleTime)
+		return;
+	    stepsPerSecond = (steps-sampleSteps)*1e9/dt;
+	    simTimePerSecond = (simTime-sampleSimTime)*1e9/dt;
+	    sampleStart = now;
+	    sampleSteps = steps;
+	    sampleSimTime = simTime;
+	    int i;
+	    for (i = 0; i != listeners.size(); i++)
+		listeners.elementAt(i).metricsUpdated(this);
+	}
+
+	static int countNonzeros(double a[][], int n) {
+	    int i, j, c = 0;
+	    for (i = 0; i != n; i++)
+		for (j = 0; j != n; j++)
+		    if (a[i][j] != 0)
+			c++;
+	    return c;
+	}
+
+	public double getSimulatedTimePerSecond() { return simTimePerSecond; }
+	public double getStepsPerSecond() { return stepsPerSecond; }
+	public long getSteps() { return steps; }
+	public long getSubIterations() { return subIterations; }
+	public long[] getSubIterationHistogram() { return histogram.clone(); }
+	public long getFactorizations() { return factorizations; }
+	public double getFactorTimeMillis() { return factorTime/1e6; }
+	public long getSolves() { return solves; }
+	public double getSolveTimeMillis() { return solveTime/1e6; }
+	public long getIterativeFallbacks() { return iterativeFallbacks; }
+	public int getMatrixSize() { return matrixSize; }
+	public int getMatrixNonzeros() { return matrixNonzeros; }
+	public int getFillIn() { return fillIn; }
+	public double getAnalysisTimeMillis() { return analysisTime/1e6; }
+	public boolean isProfileElements() { return profileElements; }
+	public void setProfileElements(boolean b) { profileElements = b; }
+
+	public Map<String, Double> getStepTimeMillisByClass() {
+	    TreeMap<String, Double> m = new TreeMap<String, Double>();
+	    synchronized (classTimes) {
+		Iterator<Map.Entry<Class<?>, long[]>> it = classTimes.entrySet().iterator();
+		while (it.hasNext()) {
+		    Map.Entry<Class<?>, long[]> e = it.next();
+		    if (e.getValue()[1] != 0)
+			m.put(e.getKey().getName(), e.getValue()[0]/1e6);
+		}
+	    }
+	    return m;
+	}
+
+	public void reset() {
+	    steps = subIterations = 0;
+	    histogram = new long[histogramSize];
+	    factorizations = factorTime = solves = solveTime = 0;
+	    iterativeFallbacks = 0;
+	    synchronized (classTimes) {
+		Iterator<long[]> it = classTimes.values().iterator();
+		while (it.hasNext()) {
+		    long t[] = it.next();
+		    t[0] = t[1] = 0;
+		}
+	    }
+	    sampleStart = 0;
+	}
+    }
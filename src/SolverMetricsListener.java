@@ -0,0 +1,5 @@
+    // notified (on the simulation thread) each time SolverMetrics
+    // finishes a sampling interval
+    interface SolverMetricsListener {
+	void metricsUpdated(SolverMetrics m);
+    }
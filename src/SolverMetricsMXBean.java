@@ -0,0 +1,37 @@
+import java.util.Map;
+
+    // management interface of SolverMetrics, as seen over JMX (e.g. in
+    // jconsole under CircuitSimulator/SolverMetrics)
+    public interface SolverMetricsMXBean {
+	// rates over the last sampling interval (about a second)
+	double getSimulatedTimePerSecond();
+	double getStepsPerSecond();
+
+	// totals since the last reset
+	long getSteps();
+	long getSubIterations();
+	// timesteps by Newton subiterations: bucket 0 counts steps solved
+	// in one pass, bucket k steps that took 2^(k-1) to 2^k-1
+	long[] getSubIterationHistogram();
+	long getFactorizations();
+	double getFactorTimeMillis();
+	long getSolves();
+	double getSolveTimeMillis();
+	// times the iterative solver didn't converge and LU was used
+	long getIterativeFallbacks();
+	// doStep() time by element class; only collected while
+	// ProfileElements is set
+	Map<String, Double> getStepTimeMillisByClass();
+
+	// from the last analyzeCircuit()
+	int getMatrixSize();
+	int getMatrixNonzeros();
+	// nonzeros the LU factorization added to the matrix (-1 until the
+	// matrix has been factored)
+	int getFillIn();
+	double getAnalysisTimeMillis();
+
+	boolean isProfileElements();
+	void setProfileElements(boolean b);
+	void reset();
+    }
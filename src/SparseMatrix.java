@@ -0,0 +1,108 @@
+    // circuit matrix kept as lists of the nonzeros in each row, for
+    // circuits too big to hold as n*n doubles.  Stamps are appended to
+    // their row as they come; compact() then sorts each row by column and
+    // adds up the entries for the same column, after which the rows can
+    // be read in order through cols[], vals[] and len[].
+    class SparseMatrix {
+	int n;
+	int cols[][];
+	double vals[][];
+	int len[];
+
+	SparseMatrix(int size) {
+	    n = size;
+	    cols = new int[n][];
+	    vals = new double[n][];
+	    len = new int[n];
+	    int i;
+	    for (i = 0; i != n; i++) {
+		cols[i] = new int[4];
+		vals[i] = new double[4];
+	    }
+	}
+
+	void add(int i, int j, double x) {
+	    int l = len[i];
+	    if (l == cols[i].length) {
+		int c[] = new int[l*2];
+		double v[] = new double[l*2];
+		System.arraycopy(cols[i], 0, c, 0, l);
+		System.arraycopy(vals[i], 0, v, 0, l);
+		cols[i] = c;
+		vals[i] = v;
+	    }
+	    cols[i][l] = j;
+	    vals[i][l] = x;
+	    len[i] = l+1;
+	}
+
+	// sort each row by column, add up entries in the same column and
+	// drop the ones that come to zero
+	void compact() {
+	    int i, k, m;
+	    for (i = 0; i != n; i++) {
+		int c[] = cols[i];
+		double v[] = vals[i];
+		int l = len[i];
+		// insertion sort; rows only have a few entries
+		for (k = 1; k < l; k++) {
+		    int cc = c[k];
+		    double vv = v[k];
+		    for (m = k; m > 0 && c[m-1] > cc; m--) {
+			c[m] = c[m-1];
+			v[m] = v[m-1];
+		    }
+		    c[m] = cc;
+		    v[m] = vv;
+		}
+		m = 0;
+		for (k = 0; k != l; k++) {
+		    if (m > 0 && c[m-1] == c[k])
+			v[m-1] += v[k];
+		    else {
+			c[m] = c[k];
+			v[m++] = v[k];
+		    }
+		    if (v[m-1] == 0 && (k+1 == l || c[k+1] != c[m-1]))
+			m--;
+		}
+		len[i] = m;
+	    }
+	}
+
+	// the value at row i, column j (rows must be compacted)
+	double get(int i, int j) {
+	    int k;
+	    for (k = 0; k != len[i]; k++)
+		if (cols[i][k] == j)
+		    return vals[i][k];
+	    return 0;
+	}
+
+	// false if any entry is NaN or infinite
+	boolean isFinite() {
+	    int i, k;
+	    for (i = 0; i != n; i++)
+		for (k = 0; k != len[i]; k++)
+		    if (Double.isNaN(vals[i][k]) || Double.isInfinite(vals[i][k]))
+			return false;
+	    return true;
+	}
+
+	int countNonzeros() {
+	    int i, nz = 0;
+	    for (i = 0; i != n; i++)
+		nz += len[i];
+	    return nz;
+	}
+
+	// the same matrix as n*n doubles, for the dense solvers
+	double[][] toDense() {
+	    double a[][] = new double[n][n];
+	    int i, k;
+	    for (i = 0; i != n; i++)
+		for (k = 0; k != len[i]; k++)
+		    a[i][cols[i][k]] += vals[i][k];
+	    return a;
+	}
+    }
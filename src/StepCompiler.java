@@ -0,0 +1,352 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.HashMap;
+
+    // generates the class of a StepKernel.Code for one circuit.  Each of
+    // its methods is the matching loop of StepKernel unrolled into
+    // straight-line bytecode: every element call names the element's own
+    // class, so the JIT sees a direct call it can inline instead of a
+    // virtual call through CircuitElm, and the posts and node numbers
+    // that writeBack() reads are constants.  The elements are passed to
+    // the constructor in one array.  Methods are split into pieces of
+    // at most maxCode bytes, since the JIT won't compile a method over
+    // 8000 bytes, and the class file can't have one over 64K.  The class
+    // is defined as a hidden class (Java 15 and up) so that it can be
+    // unloaded once the circuit changes.
+    class StepCompiler {
+	static final int maxCode = 7000;
+	static final String className = "StepKernelCode";
+	static final String elmArray = "[LCircuitElm;";
+
+	StepKernel kernel;
+	CircuitElm elms[];
+	int elmCount;
+
+	// the constant pool, and the index of each constant by its key
+	ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+	DataOutputStream pool = new DataOutputStream(poolBytes);
+	HashMap<String, Integer> constants = new HashMap<String, Integer>();
+	int poolCount = 1;
+
+	ByteArrayOutputStream methodBytes = new ByteArrayOutputStream();
+	DataOutputStream methods = new DataOutputStream(methodBytes);
+	int methodCount;
+
+	// code of the method being written
+	ByteArrayOutputStream codeBytes;
+	DataOutputStream code;
+	int maxStack;
+	// the interface method being written, and the descriptor and
+	// number of its pieces
+	String methodName, methodDesc, pieceDesc;
+	int pieceCount;
+
+	StepCompiler(StepKernel k) {
+	    kernel = k;
+	    elms = new CircuitElm[k.startElms.length+k.sourceElms.length+
+				  k.stepElms.length+k.directElms.length+k.setElms.length];
+	}
+
+	// build the code object, or return null if the class can't be
+	// defined
+	static StepKernel.Code compile(StepKernel k) {
+	    try {
+		StepCompiler sc = new StepCompiler(k);
+		byte b[] = sc.write();
+		MethodHandles.Lookup lookup =
+		    MethodHandles.lookup().defineHiddenClass(b, true);
+		return (StepKernel.Code) lookup.findConstructor(lookup.lookupClass(),
+		    MethodType.methodType(void.class, CircuitElm[].class)).invoke(sc.elms);
+	    } catch (Throwable e) {
+		e.printStackTrace();
+		return null;
+	    }
+	}
+
+	byte[] write() throws IOException {
+	    int i, j;
+	    StepKernel k = kernel;
+	    writeConstructor();
+	    writeCalls("startIteration", k.startElms);
+	    writeCalls("stepSources", "stepSource", k.sourceElms);
+	    writeCalls("doStep", k.stepElms);
+
+	    startMethod("load", "([D)V", "(" + elmArray + "[D)V");
+	    for (i = 0; i != k.directElms.length; i++) {
+		CircuitElm ce = k.directElms[i];
+		int nodes[] = ce.nodes;
+		int e = addElm(ce);
+		// ce.volts[j] = nv[nodes[j]] for each post not on ground
+		loadElm(e);
+		fieldInsn(0xb4, "CircuitElm", "volts", "[D");
+		for (j = 0; j != nodes.length; j++) {
+		    if (nodes[j] == 0)
+			continue;
+		    code.writeByte(0x59);     // dup
+		    pushInt(j);
+		    code.writeByte(0x2b);     // aload_1
+		    pushInt(nodes[j]);
+		    code.writeByte(0x31);     // daload
+		    code.writeByte(0x52);     // dastore
+		}
+		code.writeByte(0x57);         // pop
+		if (k.directCalc[i])
+		    callElm(e, ce, "calculateCurrent", "()V");
+		splitMethod();
+	    }
+	    for (i = 0; i != k.setElms.length; i++) {
+		CircuitElm ce = k.setElms[i];
+		int nodes[] = ce.nodes;
+		int e = addElm(ce);
+		for (j = 0; j != nodes.length; j++) {
+		    if (nodes[j] == 0)
+			continue;
+		    loadElm(e);
+		    classInsn(0xc0, ce.getClass());       // checkcast
+		    pushInt(j);
+		    code.writeByte(0x2b);     // aload_1
+		    pushInt(nodes[j]);
+		    code.writeByte(0x31);     // daload
+		    methodInsn(0xb6, className(ce.getClass()), "setNodeVoltage", "(ID)V");
+		}
+		splitMethod();
+	    }
+	    endMethod();
+
+	    ByteArrayOutputStream out = new ByteArrayOutputStream();
+	    DataOutputStream d = new DataOutputStream(out);
+	    int thisClass = classConst(className);
+	    int superClass = classConst("java/lang/Object");
+	    int iface = classConst("StepKernel$Code");
+	    int fieldName = utf8("e");
+	    int fieldType = utf8(elmArray);
+	    d.writeInt(0xcafebabe);
+	    d.writeShort(0);
+	    d.writeShort(52);
+	    d.writeShort(poolCount);
+	    poolBytes.writeTo(out);
+	    d.writeShort(0x0030);              // final super
+	    d.writeShort(thisClass);
+	    d.writeShort(superClass);
+	    d.writeShort(1);
+	    d.writeShort(iface);
+	    d.writeShort(1);
+	    d.writeShort(0x0010);              // final
+	    d.writeShort(fieldName);
+	    d.writeShort(fieldType);
+	    d.writeShort(0);
+	    d.writeShort(methodCount);
+	    methodBytes.writeTo(out);
+	    d.writeShort(0);
+	    return out.toByteArray();
+	}
+
+	// StepKernelCode(CircuitElm e[]) { this.e = e; }
+	void writeConstructor() throws IOException {
+	    beginCode();
+	    code.writeByte(0x2a);             // aload_0
+	    methodInsn(0xb7, "java/lang/Object", "<init>", "()V");
+	    code.writeByte(0x2a);             // aload_0
+	    code.writeByte(0x2b);             // aload_1
+	    fieldInsn(0xb5, className, "e", elmArray);
+	    code.writeByte(0xb1);             // return
+	    maxStack = 2;
+	    endCode(0, "<init>", "(" + elmArray + ")V", 2);
+	}
+
+	void writeCalls(String name, CircuitElm list[]) throws IOException {
+	    writeCalls(name, name, list);
+	}
+
+	// the interface method name, calling the given element method of
+	// each element of list in order
+	void writeCalls(String name, String elmMethod, CircuitElm list[]) throws IOException {
+	    int i;
+	    startMethod(name, "()V", "(" + elmArray + ")V");
+	    for (i = 0; i != list.length; i++) {
+		callElm(addElm(list[i]), list[i], elmMethod, "()V");
+		splitMethod();
+	    }
+	    endMethod();
+	}
+
+	// start the pieces of an interface method; the pieces are static
+	// methods taking the element array (and the method's argument)
+	void startMethod(String name, String desc, String piece) throws IOException {
+	    methodName = name;
+	    methodDesc = desc;
+	    pieceDesc = piece;
+	    pieceCount = 0;
+	    beginCode();
+	    maxStack = 6;
+	}
+
+	// finish the current piece if it is getting long
+	void splitMethod() throws IOException {
+	    if (codeBytes.size() < maxCode)
+		return;
+	    endPiece();
+	    beginCode();
+	    maxStack = 6;
+	}
+
+	void endPiece() throws IOException {
+	    code.writeByte(0xb1);             // return
+	    endCode(0x0008, methodName + pieceCount++, pieceDesc,
+		    pieceDesc.endsWith("[D)V") ? 2 : 1);
+	}
+
+	// finish the last piece and write the interface method, which calls
+	// each piece in turn
+	void endMethod() throws IOException {
+	    int i;
+	    endPiece();
+	    beginCode();
+	    boolean arg = methodDesc.startsWith("([D");
+	    for (i = 0; i != pieceCount; i++) {
+		code.writeByte(0x2a);         // aload_0
+		fieldInsn(0xb4, className, "e", elmArray);
+		if (arg)
+		    code.writeByte(0x2b);     // aload_1
+		methodInsn(0xb8, className, methodName + i, pieceDesc);
+	    }
+	    code.writeByte(0xb1);             // return
+	    maxStack = 2;
+	    endCode(0x0001, methodName, methodDesc, (arg) ? 2 : 1);
+	}
+
+	int addElm(CircuitElm ce) {
+	    elms[elmCount] = ce;
+	    return elmCount++;
+	}
+
+	// push elms[e], with the element array in local 0
+	void loadElm(int e) throws IOException {
+	    code.writeByte(0x2a);             // aload_0
+	    pushInt(e);
+	    code.writeByte(0x32);             // aaload
+	}
+
+	// ((ElmClass) elms[e]).name()
+	void callElm(int e, CircuitElm ce, String name, String desc) throws IOException {
+	    loadElm(e);
+	    classInsn(0xc0, ce.getClass());   // checkcast
+	    methodInsn(0xb6, className(ce.getClass()), name, desc);
+	}
+
+	void pushInt(int x) throws IOException {
+	    if (x >= -1 && x <= 5)
+		code.writeByte(0x03+x);       // iconst
+	    else if (x >= -128 && x <= 127) {
+		code.writeByte(0x10);         // bipush
+		code.writeByte(x);
+	    } else if (x >= -32768 && x <= 32767) {
+		code.writeByte(0x11);         // sipush
+		code.writeShort(x);
+	    } else {
+		code.writeByte(0x13);         // ldc_w
+		code.writeShort(intConst(x));
+	    }
+	}
+
+	static String className(Class<?> c) {
+	    return c.getName().replace('.', '/');
+	}
+
+	void classInsn(int op, Class<?> c) throws IOException {
+	    code.writeByte(op);
+	    code.writeShort(classConst(className(c)));
+	}
+
+	void fieldInsn(int op, String owner, String name, String desc) throws IOException {
+	    code.writeByte(op);
+	    code.writeShort(memberConst(9, owner, name, desc));
+	}
+
+	void methodInsn(int op, String owner, String name, String desc) throws IOException {
+	    code.writeByte(op);
+	    code.writeShort(memberConst(10, owner, name, desc));
+	}
+
+	void beginCode() {
+	    codeBytes = new ByteArrayOutputStream();
+	    code = new DataOutputStream(codeBytes);
+	}
+
+	void endCode(int access, String name, String desc, int maxLocals) throws IOException {
+	    int nameIndex = utf8(name);
+	    int descIndex = utf8(desc);
+	    int codeIndex = utf8("Code");
+	    methods.writeShort(access);
+	    methods.writeShort(nameIndex);
+	    methods.writeShort(descIndex);
+	    methods.writeShort(1);
+	    methods.writeShort(codeIndex);
+	    methods.writeInt(12+codeBytes.size());
+	    methods.writeShort(maxStack);
+	    methods.writeShort(maxLocals);
+	    methods.writeInt(codeBytes.size());
+	    codeBytes.writeTo(methodBytes);
+	    methods.writeShort(0);
+	    methods.writeShort(0);
+	    methodCount++;
+	}
+
+	int utf8(String s) throws IOException {
+	    Integer n = constants.get("U" + s);
+	    if (n != null)
+		return n;
+	    pool.writeByte(1);
+	    pool.writeUTF(s);
+	    constants.put("U" + s, poolCount);
+	    return poolCount++;
+	}
+
+	int intConst(int x) throws IOException {
+	    Integer n = constants.get("I" + x);
+	    if (n != null)
+		return n;
+	    pool.writeByte(3);
+	    pool.writeInt(x);
+	    constants.put("I" + x, poolCount);
+	    return poolCount++;
+	}
+
+	int classConst(String name) throws IOException {
+	    Integer n = constants.get("C" + name);
+	    if (n != null)
+		return n;
+	    int u = utf8(name);
+	    pool.writeByte(7);
+	    pool.writeShort(u);
+	    constants.put("C" + name, poolCount);
+	    return poolCount++;
+	}
+
+	// a field (tag 9) or method (tag 10) reference
+	int memberConst(int tag, String owner, String name, String desc) throws IOException {
+	    String key = "M" + tag + owner + "." + name + desc;
+	    Integer n = constants.get(key);
+	    if (n != null)
+		return n;
+	    int c = classConst(owner);
+	    int un = utf8(name);
+	    int ud = utf8(desc);
+	    Integer nt = constants.get("N" + name + desc);
+	    if (nt == null) {
+		pool.writeByte(12);
+		pool.writeShort(un);
+		pool.writeShort(ud);
+		nt = poolCount++;
+		constants.put("N" + name + desc, nt);
+	    }
+	    pool.writeByte(tag);
+	    pool.writeShort(c);
+	    pool.writeShort(nt);
+	    constants.put(key, poolCount);
+	    return poolCount++;
+	}
+    }
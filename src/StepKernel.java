@@ -0,0 +1,256 @@
+import java.util.Vector;
+
+    // the per-step work of runCircuit(), set up after analyzeCircuit() for
+    // a fixed topology.  The elements are held in plain arrays by the
+    // methods they actually implement, and the row mapping (constant
+    // rows, mapped columns) is flattened into index tables, so the loops
+    // do no Vector lookups or RowInfo branching.  The solution is written
+    // into nodeVoltages[], and each element then reads its posts from
+    // that array by node number.  With "Compile Step Kernel" on, the
+    // element calls are instead generated as code for this circuit by
+    // StepCompiler.
+    class StepKernel {
+	// elements that actually override startIteration(), stepSource()
+	// and doStep(); the rest inherit the empty bodies from CircuitElm
+	CircuitElm startElms[], sourceElms[], stepElms[];
+
+	// elements with at least one non-ground node, which get their volts[]
+	// set from nodeVoltages[] directly.  If directCalc[] is set, the
+	// element's current is then calculated once.
+	CircuitElm directElms[];
+	boolean directCalc[];
+	// elements that override setNodeVoltage(), so it must be called for
+	// each post
+	CircuitElm setElms[];
+
+	// for each full matrix row, the solved column it reads from, or -1
+	// if the row is constant (value in rowConst)
+	int rowCol[];
+	double rowConst[];
+	int nodeRows;
+
+	// voltage of each node (node 0 is ground), valid after writeBack()
+	double nodeVoltages[];
+
+	CircuitElm voltageSources[];
+
+	// the element calls of the methods below, generated as straight-line
+	// code for this circuit by StepCompiler, or null to use the loops
+	Code code;
+
+	interface Code {
+	    void startIteration();
+	    void stepSources();
+	    void doStep();
+	    // set the elements' post voltages from nv[], indexed by node
+	    void load(double nv[]);
+	}
+
+	// convergence statistics being collected (null if off), and the entry
+	// of each element of stepElms[]
+	CirSim sim;
+	ConvergenceStats stats;
+	ConvergenceStats.Entry statEntries[];
+	// doStep() timer of each element of stepElms[], used while
+	// sim.metrics.profileElements is set
+	SolverMetrics metrics;
+	long classTimers[][];
+
+	StepKernel(CirSim sim) {
+	    int i, j;
+	    this.sim = sim;
+	    Vector<CircuitElm> elmList = sim.elmList;
+	    Vector<CircuitElm> starts = new Vector<CircuitElm>();
+	    Vector<CircuitElm> sources = new Vector<CircuitElm>();
+	    Vector<CircuitElm> steps = new Vector<CircuitElm>();
+	    for (i = 0; i != elmList.size(); i++) {
+		CircuitElm ce = elmList.elementAt(i);
+		if (overrides(ce, "startIteration"))
+		    starts.addElement(ce);
+		if (overrides(ce, "stepSource"))
+		    sources.addElement(ce);
+		if (overrides(ce, "doStep"))
+		    steps.addElement(ce);
+	    }
+	    startElms = new CircuitElm[starts.size()];
+	    starts.copyInto(startElms);
+	    sourceElms = new CircuitElm[sources.size()];
+	    sources.copyInto(sourceElms);
+	    stepElms = new CircuitElm[steps.size()];
+	    steps.copyInto(stepElms);
+
+	    int n = sim.circuitMatrixFullSize;
+	    rowCol = new int[n];
+	    rowConst = new double[n];
+	    for (j = 0; j != n; j++) {
+		RowInfo ri = sim.circuitRowInfo[j];
+		if (ri.type == RowInfo.ROW_CONST) {
+		    rowCol[j] = -1;
+		    rowConst[j] = ri.value;
+		} else
+		    rowCol[j] = ri.mapCol;
+	    }
+
+	    nodeRows = sim.nodeList.size()-1;
+	    nodeVoltages = new double[nodeRows+1];
+	    Vector<CircuitElm> direct = new Vector<CircuitElm>();
+	    Vector<CircuitElm> sets = new Vector<CircuitElm>();
+	    for (i = 0; i != elmList.size(); i++) {
+		CircuitElm ce = elmList.elementAt(i);
+		for (j = 0; j != ce.nodes.length; j++)
+		    if (ce.nodes[j] != 0)
+			break;
+		if (j == ce.nodes.length)
+		    continue;
+		if (overrides(ce, "setNodeVoltage", int.class, double.class))
+		    sets.addElement(ce);
+		else
+		    direct.addElement(ce);
+	    }
+	    directElms = new CircuitElm[direct.size()];
+	    direct.copyInto(directElms);
+	    directCalc = new boolean[directElms.length];
+	    for (i = 0; i != directElms.length; i++)
+		directCalc[i] = overrides(directElms[i], "calculateCurrent");
+	    setElms = new CircuitElm[sets.size()];
+	    sets.copyInto(setElms);
+	    voltageSources = sim.voltageSources;
+	    setStats(sim.convergenceStats);
+	    metrics = sim.metrics;
+	    classTimers = new long[stepElms.length][];
+	    for (i = 0; i != stepElms.length; i++)
+		classTimers[i] = metrics.getClassTimer(stepElms[i].getClass());
+	}
+
+	// generate the code for this circuit, for circuits that will run a
+	// long time without changing.  The loops are used if it fails.
+	void compile() {
+	    code = StepCompiler.compile(this);
+	}
+
+	void setStats(ConvergenceStats cs) {
+	    stats = cs;
+	    statEntries = null;
+	    if (cs == null)
+		return;
+	    statEntries = new ConvergenceStats.Entry[stepElms.length];
+	    int i;
+	    for (i = 0; i != stepElms.length; i++)
+		statEntries[i] = cs.getEntry(stepElms[i]);
+	}
+
+	// true if the element's class overrides the given CircuitElm method
+	static boolean overrides(CircuitElm ce, String name, Class<?>... params) {
+	    Class<?> c;
+	    for (c = ce.getClass(); c != CircuitElm.class; c = c.getSuperclass()) {
+		try {
+		    c.getDeclaredMethod(name, params);
+		    return true;
+		} catch (NoSuchMethodException e) {
+		}
+	    }
+	    return false;
+	}
+
+	void startIteration() {
+	    int i;
+	    if (code != null) {
+		code.startIteration();
+		return;
+	    }
+	    for (i = 0; i != startElms.length; i++)
+		startElms[i].startIteration();
+	}
+
+	// stamp the time-dependent sources for this timestep
+	void stepSources() {
+	    int i;
+	    if (code != null) {
+		code.stepSources();
+		return;
+	    }
+	    for (i = 0; i != sourceElms.length; i++)
+		sourceElms[i].stepSource();
+	}
+
+	void doStep() {
+	    int i;
+	    if (stats != null || metrics.profileElements) {
+		doStepInstrumented();
+		return;
+	    }
+	    if (code != null) {
+		code.doStep();
+		return;
+	    }
+	    for (i = 0; i != stepElms.length; i++)
+		stepElms[i].doStep();
+	}
+
+	// doStep() with each element's effect on sim.converged and
+	// sim.limitedSteps, and its time, recorded separately
+	void doStepInstrumented() {
+	    int i;
+	    boolean conv = sim.converged;
+	    boolean timed = metrics.profileElements;
+	    for (i = 0; i != stepElms.length; i++) {
+		int lim = sim.limitedSteps;
+		sim.converged = true;
+		long t0 = (timed) ? System.nanoTime() : 0;
+		stepElms[i].doStep();
+		if (timed) {
+		    long t[] = classTimers[i];
+		    t[0] += System.nanoTime()-t0;
+		    t[1]++;
+		}
+		if (stats != null)
+		    stats.record(statEntries[i], sim.subIterations, !sim.converged,
+				 sim.limitedSteps-lim);
+		conv &= sim.converged;
+	    }
+	    sim.converged = conv;
+	}
+
+	// copy the solution back into the elements.  Returns false if the
+	// solution contains a NaN.
+	boolean writeBack(double rs[]) {
+	    int j;
+	    for (j = 0; j != nodeRows; j++) {
+		double res = (rowCol[j] < 0) ? rowConst[j] : rs[rowCol[j]];
+		if (Double.isNaN(res))
+		    return false;
+		nodeVoltages[j+1] = res;
+	    }
+	    if (code != null)
+		code.load(nodeVoltages);
+	    else
+		load();
+	    for (; j != rowCol.length; j++) {
+		double res = (rowCol[j] < 0) ? rowConst[j] : rs[rowCol[j]];
+		if (Double.isNaN(res))
+		    return false;
+		int ji = j-nodeRows;
+		voltageSources[ji].setCurrent(ji, res);
+	    }
+	    return true;
+	}
+
+	void load() {
+	    int i, k;
+	    for (i = 0; i != directElms.length; i++) {
+		CircuitElm ce = directElms[i];
+		int nodes[] = ce.nodes;
+		for (k = 0; k != nodes.length; k++)
+		    if (nodes[k] != 0)
+			ce.volts[k] = nodeVoltages[nodes[k]];
+		if (directCalc[i])
+		    ce.calculateCurrent();
+	    }
+	    for (i = 0; i != setElms.length; i++) {
+		CircuitElm ce = setElms[i];
+		for (k = 0; k != ce.nodes.length; k++)
+		    if (ce.nodes[k] != 0)
+			ce.setNodeVoltage(k, nodeVoltages[ce.nodes[k]]);
+	    }
+	}
+    }
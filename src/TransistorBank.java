@@ -0,0 +1,75 @@
+    // batched evaluation of the bipolar transistor model, like DiodeBank.
+    // TransistorElm.doStep() queues its limited junction voltages and
+    // evaluate() computes the Ebers-Moll currents and conductances for all
+    // of them in one loop before each transistor stamps its result.
+    class TransistorBank {
+	TransistorElm transistors[];
+	double pnp[], fgain[];
+	double vbc[], vbe[], ie[], ic[], gee[], gec[];
+	int pending[];
+	int count, pendingCount;
+
+	TransistorBank() {
+	    allocate(16);
+	}
+
+	void allocate(int n) {
+	    TransistorElm nt[] = new TransistorElm[n];
+	    double np[] = new double[n], nf[] = new double[n];
+	    if (transistors != null) {
+		System.arraycopy(transistors, 0, nt, 0, count);
+		System.arraycopy(pnp,   0, np, 0, count);
+		System.arraycopy(fgain, 0, nf, 0, count);
+	    }
+	    transistors = nt;
+	    pnp = np;
+	    fgain = nf;
+	    pending = new int[n];
+	    vbc = new double[n];
+	    vbe = new double[n];
+	    ie  = new double[n];
+	    ic  = new double[n];
+	    gee = new double[n];
+	    gec = new double[n];
+	}
+
+	// register a transistor; returns its slot
+	int add(TransistorElm t) {
+	    if (count == transistors.length)
+		allocate(count*2);
+	    transistors[count] = t;
+	    pnp[count] = t.pnp;
+	    fgain[count] = t.fgain;
+	    return count++;
+	}
+
+	void queue(int slot, double bc, double be) {
+	    vbc[slot] = bc;
+	    vbe[slot] = be;
+	    pending[pendingCount++] = slot;
+	}
+
+	void evaluate() {
+	    final double leakage = TransistorElm.leakage;
+	    final double vdcoef = TransistorElm.vdcoef;
+	    final double rgain = TransistorElm.rgain;
+	    int i;
+	    for (i = 0; i != pendingCount; i++) {
+		int k = pending[i];
+		double pcoef = vdcoef*pnp[k];
+		double expbc = Math.exp(vbc[k]*pcoef);
+		double expbe = Math.exp(vbe[k]*pcoef);
+		if (expbe < 1)
+		    expbe = 1;
+		ie[k] = pnp[k]*leakage*(-(expbe-1)+rgain*(expbc-1));
+		ic[k] = pnp[k]*leakage*(fgain[k]*(expbe-1)-(expbc-1));
+		gee[k] = -leakage*vdcoef*expbe;
+		gec[k] = rgain*leakage*vdcoef*expbc;
+	    }
+	    for (i = 0; i != pendingCount; i++) {
+		int k = pending[i];
+		transistors[k].setModel(vbc[k], vbe[k], ie[k], ic[k], gee[k], gec[k]);
+	    }
+	    pendingCount = 0;
+	}
+    }
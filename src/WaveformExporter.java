@@ -0,0 +1,204 @@
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+    // streams the voltage, current and power of some elements to a file
+    // while the circuit runs.  The simulation thread copies each sampled
+    // step into a bounded single-producer, single-consumer ring and never
+    // waits for the disk; a writer thread drains the ring.  If the writer
+    // falls behind and the ring fills, steps are dropped (and counted)
+    // rather than stalling the simulation.
+    //
+    // Files ending in .csv get one line per step.  Anything else gets a
+    // columnar binary file: "CIRW", the number of columns and each
+    // column's name (writeUTF), then blocks, each the number of rows
+    // followed by each column's values for those rows, all as
+    // DataOutputStream writes them.  Column 0 is the time.
+    class WaveformExporter implements Runnable {
+	// rows in the ring (a power of 2), and in a binary block
+	static final int capacity = 1<<16;
+	static final int blockRows = 4096;
+
+	CircuitElm elms[];
+	String names[];
+	int columns;
+	File file;
+	boolean binary;
+	// write every decimation'th step
+	int decimation, counter;
+
+	double ring[];
+	// rows added by the simulation thread and rows taken by the writer;
+	// each is only changed by its own thread
+	AtomicLong head = new AtomicLong(), tail = new AtomicLong();
+	// steps lost because the ring was full (simulation thread only)
+	long dropped;
+	volatile boolean stopping;
+	volatile IOException error;
+	Thread thread;
+
+	WaveformExporter(CirSim sim, CircuitElm e[], File f, int dec) {
+	    elms = e;
+	    file = f;
+	    binary = !f.getName().toLowerCase().endsWith(".csv");
+	    decimation = Math.max(1, dec);
+	    columns = 1+3*elms.length;
+	    names = new String[columns];
+	    names[0] = "t";
+	    int i;
+	    String info[] = new String[10];
+	    for (i = 0; i != elms.length; i++) {
+		info[0] = null;
+		elms[i].getInfo(info);
+		String n = ((info[0] != null) ? info[0] : "element") + " " +
+		    sim.locateElm(elms[i]);
+		names[1+3*i] = n + " V";
+		names[2+3*i] = n + " I";
+		names[3+3*i] = n + " P";
+	    }
+	    ring = new double[capacity*columns];
+	}
+
+	void start() {
+	    thread = new Thread(this, "waveform export");
+	    thread.setDaemon(true);
+	    thread.start();
+	}
+
+	// called by the simulation after each timestep
+	void timeStep(double t) {
+	    if (++counter < decimation)
+		return;
+	    counter = 0;
+	    long h = head.get();
+	    if (h-tail.get() == capacity) {
+		dropped++;
+		return;
+	    }
+	    int off = (int) (h & (capacity-1))*columns;
+	    double r[] = ring;
+	    r[off] = t;
+	    int i;
+	    for (i = 0; i != elms.length; i++) {
+		CircuitElm ce = elms[i];
+		r[off+1+3*i] = ce.getVoltageDiff();
+		r[off+2+3*i] = ce.getCurrent();
+		r[off+3+3*i] = ce.getPower();
+	    }
+	    // publish the row to the writer
+	    head.lazySet(h+1);
+	}
+
+	public void run() {
+	    try {
+		if (binary)
+		    writeBinary();
+		else
+		    writeCSV();
+	    } catch (IOException e) {
+		error = e;
+	    }
+	}
+
+	// wait for rows to write.  Returns the number available, or 0 once
+	// stop() was called and everything has been taken.
+	long waitRows() {
+	    while (true) {
+		boolean last = stopping;
+		long n = head.get()-tail.get();
+		if (n > 0)
+		    return n;
+		if (last)
+		    return 0;
+		LockSupport.parkNanos(1000000);
+	    }
+	}
+
+	void writeCSV() throws IOException {
+	    BufferedWriter out = new BufferedWriter(new FileWriter(file));
+	    try {
+		int i;
+		for (i = 0; i != columns; i++) {
+		    if (i > 0)
+			out.write(',');
+		    out.write(names[i]);
+		}
+		out.newLine();
+		StringBuilder sb = new StringBuilder();
+		long n;
+		while ((n = waitRows()) > 0) {
+		    long t = tail.get();
+		    for (; n > 0; n--, t++) {
+			int off = (int) (t & (capacity-1))*columns;
+			sb.setLength(0);
+			for (i = 0; i != columns; i++) {
+			    if (i > 0)
+				sb.append(',');
+			    sb.append(ring[off+i]);
+			}
+			out.write(sb.toString());
+			out.newLine();
+			tail.lazySet(t+1);
+		    }
+		}
+	    } finally {
+		out.close();
+	    }
+	}
+
+	void writeBinary() throws IOException {
+	    DataOutputStream out = new DataOutputStream(
+		new BufferedOutputStream(new FileOutputStream(file), 1<<16));
+	    try {
+		int i;
+		out.writeBytes("CIRW");
+		out.writeInt(columns);
+		for (i = 0; i != columns; i++)
+		    out.writeUTF(names[i]);
+		double block[][] = new double[columns][blockRows];
+		int rows = 0;
+		long n;
+		while ((n = waitRows()) > 0) {
+		    long t = tail.get();
+		    for (; n > 0; n--, t++) {
+			int off = (int) (t & (capacity-1))*columns;
+			for (i = 0; i != columns; i++)
+			    block[i][rows] = ring[off+i];
+			tail.lazySet(t+1);
+			if (++rows == blockRows) {
+			    writeBlock(out, block, rows);
+			    rows = 0;
+			}
+		    }
+		}
+		if (rows > 0)
+		    writeBlock(out, block, rows);
+	    } finally {
+		out.close();
+	    }
+	}
+
+	void writeBlock(DataOutputStream out, double block[][], int rows)
+	    throws IOException {
+	    int i, j;
+	    out.writeInt(rows);
+	    for (i = 0; i != columns; i++)
+		for (j = 0; j != rows; j++)
+		    out.writeDouble(block[i][j]);
+	}
+
+	// finish writing what has been queued and close the file
+	void stop() {
+	    stopping = true;
+	    try {
+		thread.join();
+	    } catch (InterruptedException e) {
+	    }
+	}
+    }
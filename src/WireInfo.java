@@ -0,0 +1,13 @@
+    // info about a wire (or closed switch) whose posts were merged into a
+    // single node.  Its current is recovered from the currents of the
+    // neighboring elements at one of its posts.
+    class WireInfo {
+	CircuitElm wire;
+	CircuitNodeLink neighbors[];
+	int post;
+	WireInfo(CircuitElm w, int p, CircuitNodeLink n[]) {
+	    wire = w;
+	    post = p;
+	    neighbors = n;
+	}
+    }
@@ -22,6 +22,13 @@ class AnalogSwitch2Elm extends AnalogSwitchElm {
 	ctlPoint = interpPoint(point1, point2, .5, openhs);
     }
     int getPostCount() { return 4; }
+    double getCurrentIntoNode(int n) {
+	if (n == 0)
+	    return -current;
+	if (n == (open ? 2 : 1))
+	    return current;
+	return 0;
+    }
 
     void draw(Graphics g) {
 	setBbox(point1, point2, openhs);
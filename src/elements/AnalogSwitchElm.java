@@ -89,6 +89,9 @@ class AnalogSwitchElm extends CircuitElm {
 	setPoints();
     }
     int getPostCount() { return 3; }
+    double getCurrentIntoNode(int n) {
+	return (n == 0) ? -current : (n == 1) ? current : 0;
+    }
     Point getPost(int n) {
 	return (n == 0) ? point1 : (n == 1) ? point2 : point3;
     }
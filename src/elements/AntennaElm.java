@@ -7,19 +7,20 @@ import java.util.StringTokenizer;
 	    super(xa, ya, xb, yb, f, st);
 	    waveform = WF_DC;
 	}
-	double fmphase;
+	double fmphase, voltage;
 	void stamp() {
 	    sim.stampVoltageSource(0, nodes[0], voltSource);
 	}
-	void doStep() {
-	    sim.updateVoltageSource(0, nodes[0], voltSource, getVoltage());
-	}
-	double getVoltage() {
+	// the FM phase advances once per timestep, so it has to be done
+	// here and not in getVoltage(), which draw() calls too
+	void stepSource() {
 	    fmphase += 2*pi*(2200+Math.sin(2*pi*sim.t*13)*100)*sim.timeStep;
 	    double fm = 3*Math.sin(fmphase);
-	    return Math.sin(2*pi*sim.t*3000)*(1.3+Math.sin(2*pi*sim.t*12))*3 +
+	    voltage = Math.sin(2*pi*sim.t*3000)*(1.3+Math.sin(2*pi*sim.t*12))*3 +
 	           Math.sin(2*pi*sim.t*2710)*(1.3+Math.sin(2*pi*sim.t*13))*3 +
 		   Math.sin(2*pi*sim.t*2433)*(1.3+Math.sin(2*pi*sim.t*14))*3 + fm;
+	    sim.updateVoltageSource(0, nodes[0], voltSource, voltage);
 	}
+	double getVoltage() { return voltage; }
 	int getDumpType() { return 'A'; }
     }
@@ -43,6 +43,12 @@ import java.util.StringTokenizer;
 	}
 	int getPostCount() { return 3; }
 	int getVoltageSourceCount() { return 1; }
+	double getCurrentIntoNode(int n) {
+	    // Z current isn't kept up to date outside of draw()
+	    if (n == 2)
+		return pins[0].current * gain;
+	    return super.getCurrentIntoNode(n);
+	}
 	int getDumpType() { return 179; }
     }
 
@@ -205,6 +205,7 @@ import javax.swing.*;
 		    pins[i].current = c;
 	}
 	String getChipName() { return "chip"; }
+	double getCurrentIntoNode(int n) { return pins[n].current; }
 	boolean getConnection(int n1, int n2) { return false; }
 	boolean hasGroundConnection(int n1) {
 	    return pins[n1].output;
@@ -109,6 +109,11 @@ public abstract class CircuitElm implements Editable {
     
     void startIteration() {}
     
+    // stamp the right side of a source whose value depends only on the
+    // time.  Called once per timestep, after startIteration(); the
+    // simulator keeps the result for every subiteration of the step.
+    void stepSource() {}
+    
     double getPostVoltage(int x) { return volts[x]; }
     
     void setNodeVoltage(int n, double c) {
@@ -356,7 +361,7 @@ public abstract class CircuitElm implements Editable {
     
     void drawPost(Graphics g, int x0, int y0, int n) {
 		if (sim.dragElm == null && !needsHighlight() &&
-		    sim.getCircuitNode(n).links.size() == 2)
+		    sim.getPostLinkCount(x0, y0) == 2)
 		    return;
 		if (sim.mouseMode == CirSim.MODE_DRAG_ROW ||
 		    sim.mouseMode == CirSim.MODE_DRAG_COLUMN)
@@ -666,6 +671,18 @@ public abstract class CircuitElm implements Editable {
     
     boolean isWire() { return false; }
     
+    // true if posts 0 and 1 are shorted together, so they can be merged
+    // into a single node instead of stamping a voltage source
+    boolean isWireEquivalent() { return false; }
+    
+    // current flowing out of the element into the node at post n; used
+    // to find the current in merged wires
+    double getCurrentIntoNode(int n) {
+    	if (n == 0 && getPostCount() == 2)
+    		return -current;
+    	return current;
+    }
+    
     boolean canViewInScope() { return getPostCount() <= 2; }
     
     boolean comparePair(int x1, int x2, int y1, int y2) {
@@ -88,6 +88,9 @@ import java.util.StringTokenizer;
 	    return inPosts[n];
 	}
 	int getVoltageSourceCount() { return 1; }
+	double getCurrentIntoNode(int n) {
+	    return (n == inputCount) ? current : 0;
+	}
 	abstract String getGateName();
 	void getInfo(String arr[]) {
 	    arr[0] = getGateName();
@@ -25,6 +25,7 @@ import java.util.StringTokenizer;
 	    drawPost(g, x, y, nodes[0]);
 	}
 	void setCurrent(int x, double c) { current = -c; }
+	double getCurrentIntoNode(int n) { return -current; }
 	void stamp() {
 	    sim.stampVoltageSource(0, nodes[0], voltSource, 0);
 	}
@@ -61,6 +61,9 @@ import java.util.StringTokenizer;
 	    sim.updateVoltageSource(0, nodes[1], voltSource, out);
 	}
 	double getVoltageDiff() { return volts[0]; }
+	double getCurrentIntoNode(int n) {
+	    return (n == 1) ? current : 0;
+	}
 	void getInfo(String arr[]) {
 	    arr[0] = "inverter";
 	    arr[1] = "Vi = " + getVoltageText(volts[0]);
@@ -58,6 +58,8 @@ import javax.swing.*;
 	    sim.stampVoltageSource(0, nodes[0], voltSource, v);
 	}
 	int getVoltageSourceCount() { return 1; }
+	boolean isWireEquivalent() { return false; }
+	double getCurrentIntoNode(int n) { return -current; }
 	double getVoltageDiff() { return volts[0]; }
 	void getInfo(String arr[]) {
 	    arr[0] = "logic input";
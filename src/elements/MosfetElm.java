@@ -31,6 +31,7 @@ import javax.swing.*;
 	boolean drawDigital() { return (flags & FLAG_DIGITAL) != 0; }
 	void reset() {
 	    lastv1 = lastv2 = volts[0] = volts[1] = volts[2] = curcount = 0;
+	    bypassValid = false;
 	}
 	String dump() {
 	    return super.dump() + " " + vt;
@@ -96,6 +97,11 @@ import javax.swing.*;
 	double getCurrent() { return ids; }
 	double getPower() { return ids*(volts[2]-volts[1]); }
 	int getPostCount() { return 3; }
+	double getCurrentIntoNode(int n) {
+	    if (n == 0)
+		return 0;
+	    return (n == 1) ? ids : -ids;
+	}
 
 	int pcircler;
 	Point src[], drn[], gate[], pcircle;
@@ -138,7 +144,21 @@ import javax.swing.*;
 	void stamp() {
 	    sim.stampNonLinear(nodes[1]);
 	    sim.stampNonLinear(nodes[2]);
+	    bypassValid = false;
+	    int i, j;
+	    for (i = 0; i != 3; i++) {
+		for (j = 0; j != 3; j++)
+		    slots[i*3+j] = sim.getMatrixSlot(nodes[i], nodes[j]);
+		slots[9+i] = sim.getRightSideSlot(nodes[i]);
+	    }
 	}
+	// matrix slots for (i,j) at slots[i*3+j], right side i at slots[9+i]
+	int slots[] = new int[12];
+	// terminal voltages and stamps from the last evaluation, for bypass
+	double bypassvs[] = new double[3];
+	double bypassGds, bypassrs;
+	int bypassSource;
+	boolean bypassValid;
 	void doStep() {
 	    double vs[] = new double[3];
 	    vs[0] = volts[0];
@@ -152,64 +172,87 @@ import javax.swing.*;
 		vs[2] = lastv2 + .5;
 	    if (vs[2] < lastv2 - .5)
 		vs[2] = lastv2 - .5;
-	    int source = 1;
-	    int drain = 2;
-	    if (pnp*vs[1] > pnp*vs[2]) {
-		source = 2;
-		drain = 1;
-	    }
-	    int gate = 0;
-	    double vgs = vs[gate ]-vs[source];
-	    double vds = vs[drain]-vs[source];
 	    if (Math.abs(lastv1-vs[1]) > .01 ||
 		Math.abs(lastv2-vs[2]) > .01)
 		sim.converged = false;
 	    lastv1 = vs[1];
 	    lastv2 = vs[2];
-	    double realvgs = vgs;
-	    double realvds = vds;
-	    vgs *= pnp;
-	    vds *= pnp;
-	    ids = 0;
-	    gm = 0;
-	    double Gds = 0;
-	    double beta = getBeta();
-	    if (vgs > .5 && this instanceof JfetElm) {
-		sim.stop("JFET is reverse biased!", this);
-		return;
-	    }
-	    if (vgs < vt) {
-		// should be all zero, but that causes a singular matrix,
-		// so instead we treat it as a large resistor
-		Gds = 1e-8;
-		ids = vds*Gds;
-		mode = 0;
-	    } else if (vds < vgs-vt) {
-		// linear
-		ids = beta*((vgs-vt)*vds - vds*vds*.5);
-		gm  = beta*vds;
-		Gds = beta*(vgs-vds-vt);
-		mode = 1;
+	    int gate = 0;
+	    int source, drain;
+	    double Gds, rs;
+	    if (bypassValid &&
+		Math.abs(vs[0]-bypassvs[0]) < CirSim.bypassTolerance &&
+		Math.abs(vs[1]-bypassvs[1]) < CirSim.bypassTolerance &&
+		Math.abs(vs[2]-bypassvs[2]) < CirSim.bypassTolerance) {
+		// terminals haven't moved since the last evaluation; reuse
+		// the old stamps (gm and mode are still from that evaluation)
+		// and get ids from the linearized model
+		source = bypassSource;
+		drain = 3-source;
+		Gds = bypassGds;
+		rs = bypassrs;
+		ids = pnp*(Gds*(vs[drain]-vs[source]) + gm*(vs[gate]-vs[source]) - rs);
 	    } else {
-		// saturation; Gds = 0
-		gm  = beta*(vgs-vt);
-		// use very small Gds to avoid nonconvergence
-		Gds = 1e-8;
-		ids = .5*beta*(vgs-vt)*(vgs-vt) + (vds-(vgs-vt))*Gds;
-		mode = 2;
+		source = 1;
+		drain = 2;
+		if (pnp*vs[1] > pnp*vs[2]) {
+		    source = 2;
+		    drain = 1;
+		}
+		double vgs = vs[gate ]-vs[source];
+		double vds = vs[drain]-vs[source];
+		double realvgs = vgs;
+		double realvds = vds;
+		vgs *= pnp;
+		vds *= pnp;
+		ids = 0;
+		gm = 0;
+		Gds = 0;
+		double beta = getBeta();
+		if (vgs > .5 && this instanceof JfetElm) {
+		    sim.stop("JFET is reverse biased!", this);
+		    return;
+		}
+		if (vgs < vt) {
+		    // should be all zero, but that causes a singular matrix,
+		    // so instead we treat it as a large resistor
+		    Gds = 1e-8;
+		    ids = vds*Gds;
+		    mode = 0;
+		} else if (vds < vgs-vt) {
+		    // linear
+		    ids = beta*((vgs-vt)*vds - vds*vds*.5);
+		    gm  = beta*vds;
+		    Gds = beta*(vgs-vds-vt);
+		    mode = 1;
+		} else {
+		    // saturation; Gds = 0
+		    gm  = beta*(vgs-vt);
+		    // use very small Gds to avoid nonconvergence
+		    Gds = 1e-8;
+		    ids = .5*beta*(vgs-vt)*(vgs-vt) + (vds-(vgs-vt))*Gds;
+		    mode = 2;
+		}
+		rs = -pnp*ids + Gds*realvds + gm*realvgs;
+		bypassValid = true;
+		bypassvs[0] = vs[0];
+		bypassvs[1] = vs[1];
+		bypassvs[2] = vs[2];
+		bypassSource = source;
+		bypassGds = Gds;
+		bypassrs = rs;
+		//System.out.println("M " + vds + " " + vgs + " " + ids + " " + gm + " "+ Gds + " " + volts[0] + " " + volts[1] + " " + volts[2] + " " + source + " " + rs + " " + this);
 	    }
-	    double rs = -pnp*ids + Gds*realvds + gm*realvgs;
-	    //System.out.println("M " + vds + " " + vgs + " " + ids + " " + gm + " "+ Gds + " " + volts[0] + " " + volts[1] + " " + volts[2] + " " + source + " " + rs + " " + this);
-	    sim.stampMatrix(nodes[drain],  nodes[drain],  Gds);
-	    sim.stampMatrix(nodes[drain],  nodes[source], -Gds-gm); 
-	    sim.stampMatrix(nodes[drain],  nodes[gate],   gm);
+	    sim.stampSlot(slots[drain*3+drain],  Gds);
+	    sim.stampSlot(slots[drain*3+source], -Gds-gm); 
+	    sim.stampSlot(slots[drain*3+gate],   gm);
 	    
-	    sim.stampMatrix(nodes[source], nodes[drain],  -Gds);
-	    sim.stampMatrix(nodes[source], nodes[source], Gds+gm); 
-	    sim.stampMatrix(nodes[source], nodes[gate],  -gm);
+	    sim.stampSlot(slots[source*3+drain],  -Gds);
+	    sim.stampSlot(slots[source*3+source], Gds+gm); 
+	    sim.stampSlot(slots[source*3+gate],  -gm);
 	    
-	    sim.stampRightSide(nodes[drain],  rs);
-	    sim.stampRightSide(nodes[source], -rs);
+	    sim.stampRightSideSlot(slots[9+drain],  rs);
+	    sim.stampRightSideSlot(slots[9+source], -rs);
 	    if (source == 2 && pnp == 1 ||
 		source == 1 && pnp == -1)
 		ids = -ids;
@@ -244,8 +287,10 @@ import javax.swing.*;
 	    return null;
 	}
 	public void setEditValue(int n, EditInfo ei) {
-	    if (n == 0)
+	    if (n == 0) {
 		vt = pnp*ei.value;
+		bypassValid = false;
+	    }
 	    if (n == 1) {
 		flags = (ei.checkbox.isSelected()) ? (flags | FLAG_DIGITAL) :
 		    (flags & ~FLAG_DIGITAL);
@@ -96,6 +96,9 @@ import java.util.StringTokenizer;
 	    plusFont = new Font("SansSerif", 0, opsize == 2 ? 14 : 10);
 	}
 	int getPostCount() { return 3; }
+	double getCurrentIntoNode(int n) {
+	    return (n == 2) ? -current : 0;
+	}
 	Point getPost(int n) {
 	    return (n == 0) ? in1p[0] : (n == 1) ? in2p[0] : point2;
 	}
@@ -0,0 +1,130 @@
+import java.io.IOException;
+import java.util.StringTokenizer;
+import javax.swing.*;
+
+    // 1-terminal source that plays back a recorded waveform from a
+    // SampleFile, scaled by maxVoltage and offset by bias
+    class PWLRailElm extends RailElm {
+	static final int FLAG_REPEAT = 4;
+	String fileName;
+	SampleFile samples;
+	String loadError;
+	public PWLRailElm(int xx, int yy) {
+	    super(xx, yy, WF_VAR);
+	    maxVoltage = 1;
+	    fileName = "";
+	}
+	public PWLRailElm(int xa, int ya, int xb, int yb, int f,
+		       StringTokenizer st) {
+	    super(xa, ya, xb, yb, f, st);
+	    waveform = WF_VAR;
+	    fileName = "";
+	    if (st.hasMoreTokens()) {
+		fileName = st.nextToken();
+		while (st.hasMoreTokens())
+		    fileName += ' ' + st.nextToken();
+		fileName = unescape(fileName);
+	    }
+	    load();
+	}
+	String dump() {
+	    return super.dump() + " " + escape(fileName);
+	}
+	// the file name is written with '%' and whitespace as %xx, so that
+	// it comes back as one token however many spaces it has
+	static String escape(String s) {
+	    StringBuffer sb = new StringBuffer();
+	    int i;
+	    for (i = 0; i != s.length(); i++) {
+		char c = s.charAt(i);
+		if (c == '%' || c <= ' ')
+		    sb.append('%').append(Character.forDigit((c >> 4) & 15, 16)).
+			append(Character.forDigit(c & 15, 16));
+		else
+		    sb.append(c);
+	    }
+	    return sb.toString();
+	}
+	static String unescape(String s) {
+	    StringBuffer sb = new StringBuffer();
+	    int i;
+	    for (i = 0; i != s.length(); i++) {
+		char c = s.charAt(i);
+		if (c == '%' && i+2 < s.length()) {
+		    int h = Character.digit(s.charAt(i+1), 16);
+		    int l = Character.digit(s.charAt(i+2), 16);
+		    if (h >= 0 && l >= 0) {
+			sb.append((char) (h*16+l));
+			i += 2;
+			continue;
+		    }
+		}
+		sb.append(c);
+	    }
+	    return sb.toString();
+	}
+	int getDumpType() { return 189; }
+	void load() {
+	    samples = null;
+	    loadError = null;
+	    if (fileName.length() == 0)
+		return;
+	    try {
+		samples = new SampleFile(fileName);
+	    } catch (IOException e) {
+		loadError = e.getMessage();
+	    }
+	}
+	double getVoltage() {
+	    if (samples == null)
+		return bias;
+	    double t = sim.t;
+	    double t0 = samples.getStartTime();
+	    double period = samples.getEndTime()-t0;
+	    if ((flags & FLAG_REPEAT) != 0 && period > 0 && t > t0)
+		t = t0 + (t-t0) % period;
+	    return samples.getValue(t)*maxVoltage + bias;
+	}
+	void getInfo(String arr[]) {
+	    arr[0] = "PWL source";
+	    arr[1] = "I = " + getCurrentText(getCurrent());
+	    arr[2] = "V = " + getVoltageText(getVoltageDiff());
+	    if (samples == null) {
+		arr[3] = (loadError != null) ? loadError : "no file";
+		return;
+	    }
+	    arr[3] = "points = " + samples.count;
+	    arr[4] = "t = " + getUnitText(samples.getStartTime(), "s") + " to " +
+		getUnitText(samples.getEndTime(), "s");
+	}
+	public EditInfo getEditInfo(int n) {
+	    if (n == 0) {
+		EditInfo ei = new EditInfo("File Name", 0, -1, -1);
+		ei.text = fileName;
+		return ei;
+	    }
+	    if (n == 1)
+		return new EditInfo("Scale", maxVoltage, -20, 20).setDimensionless();
+	    if (n == 2)
+		return new EditInfo("DC Offset (V)", bias, -20, 20);
+	    if (n == 3) {
+		EditInfo ei = new EditInfo("", 0, -1, -1);
+		ei.checkbox = new JCheckBox("Repeat", (flags & FLAG_REPEAT) != 0);
+		return ei;
+	    }
+	    return null;
+	}
+	public void setEditValue(int n, EditInfo ei) {
+	    if (n == 0) {
+		fileName = ei.textf.getText();
+		load();
+	    }
+	    if (n == 1)
+		maxVoltage = ei.value;
+	    if (n == 2)
+		bias = ei.value;
+	    if (n == 3)
+		flags = (ei.checkbox.isSelected()) ? (flags | FLAG_REPEAT) :
+		    (flags & ~FLAG_REPEAT);
+	}
+    }
@@ -31,6 +31,9 @@ class PotElm extends CircuitElm implements ChangeListener {
     void setup() {
     }
     int getPostCount() { return 3; }
+    double getCurrentIntoNode(int n) {
+	return (n == 0) ? -current1 : (n == 1) ? -current2 : -current3;
+    }
     int getDumpType() { return 174; }
     Point getPost(int n) {
 	return (n == 0) ? point1 : (n == 1) ? point2 : post3;
@@ -52,7 +52,7 @@ class RailElm extends VoltageElm {
 	else
 	    sim.stampVoltageSource(0, nodes[0], voltSource);
     }
-    void doStep() {
+    void stepSource() {
 	if (waveform != WF_DC)
 	    sim.updateVoltageSource(0, nodes[0], voltSource, getVoltage());
     }
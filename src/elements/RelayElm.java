@@ -175,6 +175,18 @@ class RelayElm extends CircuitElm {
 	return coilPosts[n-3*poleCount];
     }
     int getPostCount() { return 2+poleCount*3; }
+    double getCurrentIntoNode(int n) {
+	if (n == nCoil1)
+	    return -coilCurrent;
+	if (n == nCoil2)
+	    return coilCurrent;
+	int p = n/3;
+	if (n % 3 == nSwitch0)
+	    return -switchCurrent[p];
+	if (i_position != 2 && n % 3 == nSwitch1+i_position)
+	    return switchCurrent[p];
+	return 0;
+    }
     int getInternalNodeCount() { return 1; }
     void reset() {
 	super.reset();
@@ -123,7 +123,7 @@ class SweepElm extends CircuitElm {
 	    dir = 1;
 	}
     }
-    void doStep() {
+    void stepSource() {
 	sim.updateVoltageSource(0, nodes[0], voltSource, v);
     }
 	
@@ -80,6 +80,18 @@ import javax.swing.*;
 	int getVoltageSourceCount() {
 	    return (position == 2) ? 0 : 1;
 	}
+	// post 0 is connected to one of the other two, so we still need a
+	// voltage source to tell which
+	boolean isWireEquivalent() { return false; }
+	double getCurrentIntoNode(int n) {
+	    if (position == 2)
+		return 0;
+	    if (n == 0)
+		return -current;
+	    if (n == position+1)
+		return current;
+	    return 0;
+	}
 	void toggle() {
 	    super.toggle();
 	    if (link != 0) {
@@ -67,13 +67,6 @@ class SwitchElm extends CircuitElm {
 	if (position == 1)
 	    current = 0;
     }
-    void stamp() {
-	if (position == 0)
-	    sim.stampVoltageSource(nodes[0], nodes[1], voltSource, 0);
-    }
-    int getVoltageSourceCount() {
-	return (position == 1) ? 0 : 1;
-    }
     void mouseUp() {
 	if (momentary)
 	    toggle();
@@ -96,6 +89,8 @@ class SwitchElm extends CircuitElm {
     }
     boolean getConnection(int n1, int n2) { return position == 0; }
     boolean isWire() { return true; }
+    // a closed switch is merged into a single node, like a wire
+    boolean isWireEquivalent() { return position == 0; }
     public EditInfo getEditInfo(int n) {
 	if (n == 0) {
 	    EditInfo ei = new EditInfo("", 0, -1, -1);
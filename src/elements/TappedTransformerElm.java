@@ -99,6 +99,15 @@ import java.util.StringTokenizer;
 	    return ptEnds[n];
 	}
 	int getPostCount() { return 5; }
+	double getCurrentIntoNode(int n) {
+	    switch (n) {
+	    case 0: return -current[0];
+	    case 1: return current[0];
+	    case 2: return -current[1];
+	    case 3: return current[1]-current[2];
+	    }
+	    return current[2];
+	}
 	void reset() {
 	    current[0] = current[1] = volts[0] = volts[1] = volts[2] =
 		volts[3] = curcount[0] = curcount[1] = 0;
@@ -25,6 +25,14 @@ class TransLineElm extends CircuitElm {
     }
     int getDumpType() { return 171; }
     int getPostCount() { return 4; }
+    double getCurrentIntoNode(int n) {
+	switch (n) {
+	case 0: return current1;
+	case 1: return current2;
+	case 2: return -current1;
+	}
+	return -current2;
+    }
     int getInternalNodeCount() { return 2; }
     String dump() {
 	return super.dump() + " " + delay + " " + imped + " " + width + " " + 0.;
@@ -99,6 +99,9 @@ import javax.swing.*;
 	    return ptEnds[n];
 	}
 	int getPostCount() { return 4; }
+	double getCurrentIntoNode(int n) {
+	    return (n < 2) ? -current[n] : current[n-2];
+	}
 	void reset() {
 	    current[0] = current[1] = volts[0] = volts[1] = volts[2] =
 		volts[3] = curcount[0] = curcount[1] = 0;
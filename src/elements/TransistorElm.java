@@ -34,11 +34,13 @@ import javax.swing.*;
 	    vcrit = vt * Math.log(vt/(Math.sqrt(2)*leakage));
 	    fgain = beta/(beta+1);
 	    noDiagonal = true;
+	    bypassValid = false;
 	}
 	boolean nonLinear() { return true; }
 	void reset() {
 	    volts[0] = volts[1] = volts[2] = 0;
 	    lastvbc = lastvbe = curcount_c = curcount_e = curcount_b = 0;
+	    bypassValid = false;
 	}
 	int getDumpType() { return 't'; }
 	String dump() {
@@ -92,6 +94,9 @@ import javax.swing.*;
 	}
 	
 	int getPostCount() { return 3; }
+	double getCurrentIntoNode(int n) {
+	    return (n == 0) ? -ib : (n == 1) ? -ic : -ie;
+	}
 	double getPower() {
 	    return (volts[0]-volts[2])*ib + (volts[1]-volts[2])*ic;
 	}
@@ -135,6 +140,15 @@ import javax.swing.*;
 	static final double rgain = .5;
 	double vcrit;
 	double lastvbc, lastvbe;
+	// junction voltages and conductances from the last evaluation, for bypass
+	double bypassvbc, bypassvbe, bypassie, bypassic;
+	double gee, gec, gce, gcc;
+	boolean bypassValid;
+	// the bank that evaluates this transistor, and our slot in it
+	TransistorBank bank;
+	int bankSlot;
+	// matrix slots for (i,j) at slots[i*3+j], right side i at slots[9+i]
+	int slots[] = new int[12];
 	double limitStep(double vnew, double vold) {
 	    double arg;
 	    //double oo = vnew;
@@ -151,6 +165,7 @@ import javax.swing.*;
 		    vnew = vt *Math.log(vnew/vt);
 		}
 		sim.converged = false;
+		sim.limitedSteps++;
 		//System.out.println(vnew + " " + oo + " " + vold);
 	    }
 	    return(vnew);
@@ -159,6 +174,18 @@ import javax.swing.*;
 	    sim.stampNonLinear(nodes[0]);
 	    sim.stampNonLinear(nodes[1]);
 	    sim.stampNonLinear(nodes[2]);
+	    bypassValid = false;
+	    setBank(sim.transistorBank);
+	    int i, j;
+	    for (i = 0; i != 3; i++) {
+		for (j = 0; j != 3; j++)
+		    slots[i*3+j] = sim.getMatrixSlot(nodes[i], nodes[j]);
+		slots[9+i] = sim.getRightSideSlot(nodes[i]);
+	    }
+	}
+	void setBank(TransistorBank b) {
+	    bank = b;
+	    bankSlot = b.add(this);
 	}
 	void doStep() {
 	    double vbc = volts[0]-volts[1]; // typically negative
@@ -179,25 +206,40 @@ import javax.swing.*;
 	    vbe = pnp*limitStep(pnp*vbe, pnp*lastvbe);
 	    lastvbc = vbc;
 	    lastvbe = vbe;
-	    double pcoef = vdcoef*pnp;
-	    double expbc = Math.exp(vbc*pcoef);
-	    /*if (expbc > 1e13 || Double.isInfinite(expbc))
-	      expbc = 1e13;*/
-	    double expbe = Math.exp(vbe*pcoef);
-	    if (expbe < 1)
-		expbe = 1;
-	    /*if (expbe > 1e13 || Double.isInfinite(expbe))
-	      expbe = 1e13;*/
-	    ie = pnp*leakage*(-(expbe-1)+rgain*(expbc-1));
-	    ic = pnp*leakage*(fgain*(expbe-1)-(expbc-1));
+	    if (bypassValid && gmin == 0 &&
+		Math.abs(vbc-bypassvbc) < CirSim.bypassTolerance &&
+		Math.abs(vbe-bypassvbe) < CirSim.bypassTolerance) {
+		// junctions haven't moved since the last evaluation; reuse
+		// the old conductances and extrapolate the currents
+		ie = bypassie + gee*(vbe-bypassvbe) + gec*(vbc-bypassvbc);
+		ic = bypassic + gce*(vbe-bypassvbe) + gcc*(vbc-bypassvbc);
+		ib = -(ie+ic);
+		stampModel(vbc, vbe);
+	    } else {
+		// evaluated along with the other transistors in
+		// TransistorBank.evaluate(), which calls setModel()
+		bank.queue(bankSlot, vbc, vbe);
+	    }
+	}
+	void setModel(double vbc, double vbe, double e, double c,
+		      double ge, double gc) {
+	    ie = e;
+	    ic = c;
 	    ib = -(ie+ic);
 	    //System.out.println("gain " + ic/ib);
 	    //System.out.print("T " + vbc + " " + vbe + " " + ie + " " + ic + "\n");
-	    double gee = -leakage*vdcoef*expbe;
-	    double gec = rgain*leakage*vdcoef*expbc;
-	    double gce = -gee*fgain;
-	    double gcc = -gec*(1/rgain);
-
+	    gee = ge;
+	    gec = gc;
+	    gce = -gee*fgain;
+	    gcc = -gec*(1/rgain);
+	    bypassValid = (gmin == 0);
+	    bypassvbc = vbc;
+	    bypassvbe = vbe;
+	    bypassie = ie;
+	    bypassic = ic;
+	    stampModel(vbc, vbe);
+	}
+	void stampModel(double vbc, double vbe) {
 	    /*System.out.print("gee = " + gee + "\n");
 	    System.out.print("gec = " + gec + "\n");
 	    System.out.print("gce = " + gce + "\n");
@@ -208,21 +250,21 @@ import javax.swing.*;
 	    // stamps from page 302 of Pillage.  Node 0 is the base,
 	    // node 1 the collector, node 2 the emitter.  Also stamp
 	    // minimum conductance (gmin) between b,e and b,c
-	    sim.stampMatrix(nodes[0], nodes[0], -gee-gec-gce-gcc + gmin*2);
-	    sim.stampMatrix(nodes[0], nodes[1], gec+gcc - gmin);
-	    sim.stampMatrix(nodes[0], nodes[2], gee+gce - gmin);
-	    sim.stampMatrix(nodes[1], nodes[0], gce+gcc - gmin);
-	    sim.stampMatrix(nodes[1], nodes[1], -gcc + gmin);
-	    sim.stampMatrix(nodes[1], nodes[2], -gce);
-	    sim.stampMatrix(nodes[2], nodes[0], gee+gec - gmin);
-	    sim.stampMatrix(nodes[2], nodes[1], -gec);
-	    sim.stampMatrix(nodes[2], nodes[2], -gee + gmin);
+	    sim.stampSlot(slots[0], -gee-gec-gce-gcc + gmin*2);
+	    sim.stampSlot(slots[1], gec+gcc - gmin);
+	    sim.stampSlot(slots[2], gee+gce - gmin);
+	    sim.stampSlot(slots[3], gce+gcc - gmin);
+	    sim.stampSlot(slots[4], -gcc + gmin);
+	    sim.stampSlot(slots[5], -gce);
+	    sim.stampSlot(slots[6], gee+gec - gmin);
+	    sim.stampSlot(slots[7], -gec);
+	    sim.stampSlot(slots[8], -gee + gmin);
 
 	    // we are solving for v(k+1), not delta v, so we use formula
 	    // 10.5.13, multiplying J by v(k)
-	    sim.stampRightSide(nodes[0], -ib - (gec+gcc)*vbc - (gee+gce)*vbe);
-	    sim.stampRightSide(nodes[1], -ic + gce*vbe + gcc*vbc);
-	    sim.stampRightSide(nodes[2], -ie + gee*vbe + gec*vbc);
+	    sim.stampRightSideSlot(slots[9],  -ib - (gec+gcc)*vbc - (gee+gce)*vbe);
+	    sim.stampRightSideSlot(slots[10], -ic + gce*vbe + gcc*vbc);
+	    sim.stampRightSideSlot(slots[11], -ie + gee*vbe + gec*vbc);
 	}
 	void getInfo(String arr[]) {
 	    arr[0] = "transistor (" + ((pnp == -1) ? "PNP)" : "NPN)") + " beta=" +
@@ -139,6 +139,9 @@ class TriacElm extends CircuitElm {
     }
 	
     int getPostCount() { return 3; }
+    double getCurrentIntoNode(int n) {
+	return (n == anode) ? -ia : (n == cnode) ? -ic : -ig;
+    }
     int getInternalNodeCount() { return 1; }
     double getPower() {
 	return (volts[anode]-volts[gnode])*ia + (volts[cnode]-volts[gnode])*ic;
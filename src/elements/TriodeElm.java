@@ -98,6 +98,9 @@ class TriodeElm extends CircuitElm {
 	return (n == 0) ? plate[0] : (n == 1) ? grid[0] : cath[0];
     }
     int getPostCount() { return 3; }
+    double getCurrentIntoNode(int n) {
+	return (n == 0) ? -currentp : (n == 1) ? -currentg : currentc;
+    }
     double getPower() { return (volts[0]-volts[2])*current; }
 
     double lastv0, lastv1, lastv2;
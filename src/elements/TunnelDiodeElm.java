@@ -62,10 +62,14 @@ class TunnelDiodeElm extends CircuitElm {
     double limitStep(double vnew, double vold) {
 	// Prevent voltage changes of more than 1V when iterating.  Wow, I thought it would be
 	// much harder than this to prevent convergence problems.
-	if (vnew > vold+1)
+	if (vnew > vold+1) {
+	    sim.limitedSteps++;
 	    return vold+1;
-	if (vnew < vold-1)
+	}
+	if (vnew < vold-1) {
+	    sim.limitedSteps++;
 	    return vold-1;
+	}
 	return vnew;
     }
     void stamp() {
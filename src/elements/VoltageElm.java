@@ -71,7 +71,7 @@ class VoltageElm extends CircuitElm {
 	else
 	    sim.stampVoltageSource(nodes[0], nodes[1], voltSource);
     }
-    void doStep() {
+    void stepSource() {
 	if (waveform != WF_DC)
 	    sim.updateVoltageSource(nodes[0], nodes[1], voltSource,
 				getVoltage());
@@ -27,16 +27,12 @@ import javax.swing.*;
 	    	drawValues(g, s, 4);
 	    drawPosts(g);
 	}
-	void stamp() {
-	    sim.stampVoltageSource(nodes[0], nodes[1], voltSource, 0);
-	}
 	boolean mustShowCurrent() {
 	    return (flags & FLAG_SHOWCURRENT) != 0;
 	}
 	boolean mustShowVoltage() {
 	    return (flags & FLAG_SHOWVOLTAGE) != 0;
 	}
-	int getVoltageSourceCount() { return 1; }
 	void getInfo(String arr[]) {
 	    arr[0] = "wire";
 	    arr[1] = "I = " + getCurrentDText(getCurrent());
@@ -46,6 +42,7 @@ import javax.swing.*;
 	double getPower() { return 0; }
 	double getVoltageDiff() { return volts[0]; }
 	boolean isWire() { return true; }
+	boolean isWireEquivalent() { return true; }
 	public EditInfo getEditInfo(int n) {
 	    if (n == 0) {
 		EditInfo ei = new EditInfo("", 0, -1, -1);